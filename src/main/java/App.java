@@ -9,7 +9,9 @@ import com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduce;
 import com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduceClientBuilder;
 import com.amazonaws.services.elasticmapreduce.model.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 
 public class App {
@@ -23,6 +25,18 @@ public class App {
     public static final String s3Path = String.format("s3://%s", bucketName);
 
     public static void main(String[] args) {
+        // run with --fuse-step3 to compute step 3's association vectors in step 2's reducer and skip step 3
+        boolean fuseStep3 = Arrays.asList(args).contains(Step2.FUSE_STEP3_ARG);
+        // run with --map-side-join for the map-only step 4 (every mapper holds all of step 3's vectors)
+        boolean mapSideJoin = Arrays.asList(args).contains(Step4.MAP_SIDE_JOIN_ARG);
+        // --intermediate= and --codec= (see IntermediateFormat), every step must get the same ones
+        List<String> formatArgs = IntermediateFormat.selectArgs(args);
+        // --input=, --output-root= and --sidedata-root= (see PipelinePaths), passed on to every step
+        List<String> pathArgs = PipelinePaths.selectArgs(args);
+        formatArgs.addAll(pathArgs);
+        // run with --single-driver for one EMR step that runs all the steps as a DAG (see PipelineDriver)
+        boolean singleDriver = Arrays.asList(args).contains(PipelineDriver.SINGLE_DRIVER_ARG);
+
         credentialsProvider = new ProfileCredentialsProvider();
         System.out.println("[INFO] Connecting to AWS");
 
@@ -48,7 +62,8 @@ public class App {
             // Step 01
             HadoopJarStepConfig step01 = new HadoopJarStepConfig()
                     .withJar(String.format("%s/jars/Step01.jar", s3Path))
-                    .withMainClass("Step01");
+                    .withMainClass("Step01")
+                    .withArgs(pathArgs);
 
             StepConfig stepConfig01 = new StepConfig()
                     .withName("Step01")
@@ -58,27 +73,45 @@ public class App {
             // Step 02
             HadoopJarStepConfig step02 = new HadoopJarStepConfig()
                     .withJar(String.format("%s/jars/Step02.jar", s3Path))
-                    .withMainClass("Step02");
+                    .withMainClass("Step02")
+                    .withArgs(pathArgs);
 
             StepConfig stepConfig02 = new StepConfig()
                     .withName("Step02")
                     .withHadoopJarStep(step02)
                     .withActionOnFailure("TERMINATE_JOB_FLOW");
 
+            // Step 03
+            HadoopJarStepConfig step03 = new HadoopJarStepConfig()
+                    .withJar(String.format("%s/jars/Step03.jar", s3Path))
+                    .withMainClass("Step03")
+                    .withArgs(pathArgs);
+
+            StepConfig stepConfig03 = new StepConfig()
+                    .withName("Step03")
+                    .withHadoopJarStep(step03)
+                    .withActionOnFailure("TERMINATE_JOB_FLOW");
+
             // Step 1
             HadoopJarStepConfig step1 = new HadoopJarStepConfig()
                     .withJar(String.format("%s/jars/Step1.jar", s3Path))
-                    .withMainClass("Step1");
+                    .withMainClass("Step1")
+                    .withArgs(formatArgs);
 
             StepConfig stepConfig1 = new StepConfig()
                     .withName("Step1")
                     .withHadoopJarStep(step1)
                     .withActionOnFailure("TERMINATE_JOB_FLOW");
 
-            // Step 2
+            // Step 2 (with Step2.FUSE_STEP3_ARG it also does step 3's work)
             HadoopJarStepConfig step2 = new HadoopJarStepConfig()
                     .withJar(String.format("%s/jars/Step2.jar", s3Path))
                     .withMainClass("Step2");
+            List<String> step2Args = new ArrayList<>(formatArgs);
+            if (fuseStep3) {
+                step2Args.add(Step2.FUSE_STEP3_ARG);
+            }
+            step2.withArgs(step2Args);
 
             StepConfig stepConfig2 = new StepConfig()
                     .withName("Step2")
@@ -88,17 +121,23 @@ public class App {
             // Step 3
             HadoopJarStepConfig step3 = new HadoopJarStepConfig()
                     .withJar(String.format("%s/jars/Step3.jar", s3Path))
-                    .withMainClass("Step3");
+                    .withMainClass("Step3")
+                    .withArgs(formatArgs);
 
             StepConfig stepConfig3 = new StepConfig()
                     .withName("Step3")
                     .withHadoopJarStep(step3)
                     .withActionOnFailure("TERMINATE_JOB_FLOW");
 
-            // Step 4
+            // Step 4 (with Step4.MAP_SIDE_JOIN_ARG a map-only job)
             HadoopJarStepConfig step4 = new HadoopJarStepConfig()
                     .withJar(String.format("%s/jars/Step4.jar", s3Path))
                     .withMainClass("Step4");
+            List<String> step4Args = new ArrayList<>(formatArgs);
+            if (mapSideJoin) {
+                step4Args.add(Step4.MAP_SIDE_JOIN_ARG);
+            }
+            step4.withArgs(step4Args);
 
             StepConfig stepConfig4 = new StepConfig()
                     .withName("Step4")
@@ -106,6 +145,32 @@ public class App {
                     .withActionOnFailure("TERMINATE_JOB_FLOW");
 
 
+            // All the steps in one driver (PipelineDriver gets all the steps' arguments)
+            HadoopJarStepConfig pipeline = new HadoopJarStepConfig()
+                    .withJar(String.format("%s/jars/PipelineDriver.jar", s3Path))
+                    .withMainClass("PipelineDriver");
+            List<String> pipelineArgs = new ArrayList<>(formatArgs);
+            if (fuseStep3) {
+                pipelineArgs.add(Step2.FUSE_STEP3_ARG);
+            }
+            if (mapSideJoin) {
+                pipelineArgs.add(Step4.MAP_SIDE_JOIN_ARG);
+            }
+            pipeline.withArgs(pipelineArgs);
+
+            StepConfig stepConfigPipeline = new StepConfig()
+                    .withName("Pipeline")
+                    .withHadoopJarStep(pipeline)
+                    .withActionOnFailure("TERMINATE_JOB_FLOW");
+
+            List<StepConfig> steps;
+            if (singleDriver) {
+                steps = Arrays.asList(stepConfigPipeline);
+            } else if (fuseStep3) {
+                steps = Arrays.asList(stepConfig01, stepConfig02, stepConfig03, stepConfig1, stepConfig2, stepConfig4); // step 3 is done by step 2
+            } else {
+                steps = Arrays.asList(stepConfig01, stepConfig02, stepConfig03, stepConfig1, stepConfig2, stepConfig3, stepConfig4);  // your steps
+            }
 
             // Configure job flow
             JobFlowInstancesConfig instances = new JobFlowInstancesConfig()
@@ -117,7 +182,7 @@ public class App {
             RunJobFlowRequest runFlowRequest = new RunJobFlowRequest()
                     .withName("Map reduce project")
                     .withInstances(instances)
-                    .withSteps(Arrays.asList(stepConfig01, stepConfig02, stepConfig1, stepConfig2, stepConfig3, stepConfig4))  // your steps
+                    .withSteps(steps)
                     .withLogUri(String.format("%s/logs/", s3Path))
                     .withServiceRole("EMR_DefaultRole")
                     .withJobFlowRole("EMR_EC2_DefaultRole")
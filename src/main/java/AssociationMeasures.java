@@ -0,0 +1,80 @@
+import java.io.IOException;
+
+/**
+ * Measures the association of a lexeme with its context: the four vectors v5-v8 (methods 5, 6, 7, 8)
+ * from the lexeme's sparse counts(F=f, L=l).
+ * Used by Step3's mapper and by Step2's reducer when Step3 is fused into it (see Step2.FUSE_STEP3_ARG).
+ */
+public class AssociationMeasures {
+
+    private final FeatureCounts featureCounts; // count(L=l) and count(F=f) by dictionary ids
+    private final long countL; //total count of all lexemes
+    private final long countF; //total count of all feature
+
+    public AssociationMeasures(FeatureCounts featureCounts, PipelineMetadata metadata) throws IOException {
+        this.featureCounts = featureCounts;
+        //countL and countF, step1's counters (O(1))
+        this.countL = metadata.totalLexemeCount();
+        this.countF = metadata.totalFeatureCount();
+    }
+
+    /**
+     * Fills out with the vectors of the lexeme.
+     * @param counts_fl_vector the lexeme's counts(F=f, L=l), index i is the feature (lexeme, depLabelId i)
+     * @return false if the lexeme is not in the corpus (nothing to emit)
+     */
+    public boolean compute(int lexemeId, SparseVector counts_fl_vector, AssociationVectorsWritable out) {
+        if (featureCounts.lexemeCount(lexemeId) == 0) {
+            return false; //the lexeme is not in the corpus.
+        }
+
+        ////////  Calculate the values of each vector by all the methods (5,6,7,8) ////////
+        // Only the non-zero counts are visited, a zero count stays zero in all the methods.
+        out.clear();
+        SparseVector v5 = out.get(0); //vector by method 5
+        SparseVector v6 = out.get(1); //vector by method 6
+        SparseVector v7 = out.get(2); //vector by method 7
+        SparseVector v8 = out.get(3); //vector by method 8
+
+        // method 7 + 8
+        double p_l_f;
+        double p_l;
+        double p_f;
+
+        for (int entry = 0; entry < counts_fl_vector.size(); entry++) {
+            int i = counts_fl_vector.index(entry);
+            double count = counts_fl_vector.value(entry);
+
+            //method 5
+            //no furthers steps are required
+            v5.add(i, count);
+
+            //method 6
+            long count_f = featureCounts.featureCount(lexemeId, i);
+            v6.add(i, count_f == 0 ? count : (long) count / count_f);
+
+            //at the start v7 and v8 are the same
+            double value_by_7 = count;
+            double value_by_8 = count;
+
+            // as before only a zero count is re-weighted by 7 and 8, so they keep the (non-zero) counts
+            if (count == 0 && countF != 0 && countL != 0) {
+                p_l_f = count / countF;
+                p_l = (double) featureCounts.lexemeCount(lexemeId) / countL;
+                p_f = (double) featureCounts.featureCount(lexemeId, i) / countL;
+
+                if (p_l_f != 0 && p_l != 0 && p_f != 0) {
+                    //method 7
+                    value_by_7 = Math.log(p_l_f / (p_l * p_f)) / Math.log(2); //to get a log with base 2
+
+                    //method 8
+                    value_by_8 = (p_l_f - p_l * p_f) / Math.sqrt(p_l * p_f);
+                }
+            }
+            v7.add(i, value_by_7);
+            v8.add(i, value_by_8);
+        }
+        out.computeStats(); // carried to step4 with the vectors
+        return true;
+    }
+}
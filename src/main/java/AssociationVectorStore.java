@@ -0,0 +1,180 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * All of step3's association vectors in memory, for Step4's map-side join and LexemeIndex.
+ *
+ * The vectors are packed into one direct (off-heap) ByteBuffer, so a task holds the whole lexicon
+ * without millions of small heap arrays for the GC to trace. Layout of a lexeme's record, for v5 ... v8:
+ *   int size, double positiveSum, negativeSum, sumOfSquares, norm (VectorStats), int[size] indices, double[size] values
+ * offsets[lexemeId] is the start of the lexeme's record, -1 if step3 has no vectors for it.
+ * A single buffer, so the vectors must fit in 2GB (the gold lexicon's vectors are far smaller).
+ */
+public class AssociationVectorStore {
+
+    public static final String STEP3_VECTORS = "step3vectors"; //side data name of step3's output
+
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final int VECTOR_HEADER_BYTES = 4 + 4 * 8; // size and the statistics
+
+    private final int[] offsets;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    private int numVectors = 0;
+
+    private AssociationVectorStore(int numLexemes) {
+        offsets = new int[numLexemes];
+        Arrays.fill(offsets, -1);
+    }
+
+    public int numLexemes() {
+        return offsets.length;
+    }
+
+    public boolean contains(int lexemeId) {
+        return offsets[lexemeId] >= 0;
+    }
+
+    /**
+     * @return the number of lexemes with vectors
+     */
+    public int numVectors() {
+        return numVectors;
+    }
+
+    /**
+     * @return the off-heap bytes used by the vectors
+     */
+    public int bytes() {
+        return buffer.position();
+    }
+
+    /**
+     * Copies the lexeme's vectors and their statistics into out.
+     */
+    public void get(int lexemeId, AssociationVectorsWritable out) {
+        int position = offsets[lexemeId];
+        for (int j = 0; j < AssociationVectorsWritable.NUM_VECTORS; j++) {
+            SparseVector vector = out.get(j);
+            vector.clear();
+            int size = buffer.getInt(position);
+            out.stats(j).set(buffer.getDouble(position + 4), buffer.getDouble(position + 12),
+                    buffer.getDouble(position + 20), buffer.getDouble(position + 28), size);
+            int indices = position + VECTOR_HEADER_BYTES;
+            int values = indices + size * 4;
+            for (int entry = 0; entry < size; entry++) {
+                vector.add(buffer.getInt(indices + entry * 4), buffer.getDouble(values + entry * 8));
+            }
+            position = values + size * 8;
+        }
+    }
+
+    private void add(int lexemeId, AssociationVectorsWritable vectors) throws IOException {
+        if (offsets[lexemeId] >= 0) {
+            throw new IOException("AssociationVectorStore: two records for lexeme " + lexemeId);
+        }
+        int bytes = 0;
+        for (int j = 0; j < AssociationVectorsWritable.NUM_VECTORS; j++) {
+            bytes += VECTOR_HEADER_BYTES + vectors.get(j).size() * 12;
+        }
+        ensureCapacity(bytes);
+
+        offsets[lexemeId] = buffer.position();
+        for (int j = 0; j < AssociationVectorsWritable.NUM_VECTORS; j++) {
+            SparseVector vector = vectors.get(j);
+            VectorStats stats = vectors.stats(j);
+            buffer.putInt(vector.size());
+            buffer.putDouble(stats.positiveSum());
+            buffer.putDouble(stats.negativeSum());
+            buffer.putDouble(stats.sumOfSquares());
+            buffer.putDouble(stats.norm());
+            for (int entry = 0; entry < vector.size(); entry++) {
+                buffer.putInt(vector.index(entry));
+            }
+            for (int entry = 0; entry < vector.size(); entry++) {
+                buffer.putDouble(vector.value(entry));
+            }
+        }
+        numVectors++;
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        long capacity = Math.max(2L * buffer.capacity(), (long) buffer.position() + bytes);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("AssociationVectorStore: the vectors don't fit in a 2GB buffer");
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * Ships step3's output (all its part files) to the job's tasks as side data, for load.
+     */
+    public static void addToJob(Job job) throws IOException {
+        SideData.addToJob(job, STEP3_VECTORS, PipelinePaths.path(job.getConfiguration(), "outputs/output_step3"));
+    }
+
+    /**
+     * Loads step3's output shipped by addToJob (call from a task's setup), from the localized copies.
+     */
+    public static AssociationVectorStore load(Configuration conf, int numLexemes) throws IOException {
+        AssociationVectorStore store = new AssociationVectorStore(numLexemes);
+        for (File part : SideData.localFiles(conf, STEP3_VECTORS)) {
+            store.readPart(conf, new Path(part.toURI())); // a local file, whatever the default FileSystem is
+        }
+        return store;
+    }
+
+    /**
+     * Reads step3's output directly from its FileSystem (a driver or a local program, e.g. LexemeIndex's in-process queries).
+     */
+    public static AssociationVectorStore read(Configuration conf, Path step3Output, int numLexemes) throws IOException {
+        AssociationVectorStore store = new AssociationVectorStore(numLexemes);
+        FileSystem fs = step3Output.getFileSystem(conf);
+        for (FileStatus part : fs.globStatus(new Path(step3Output, "part-*"))) {
+            store.readPart(conf, part.getPath());
+        }
+        return store;
+    }
+
+    /**
+     * Adds the records of one part file of step3's output: a SequenceFile of (IntWritable, AssociationVectorsWritable),
+     * or in IntermediateFormat's text mode lines of: lexemeId <tab> v5;v6;v7;v8.
+     */
+    private void readPart(Configuration conf, Path part) throws IOException {
+        AssociationVectorsWritable vectors = new AssociationVectorsWritable();
+        if (!IntermediateFormat.isText(conf)) {
+            IntWritable lexemeId = new IntWritable();
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part))) {
+                while (reader.next(lexemeId, vectors)) {
+                    add(lexemeId.get(), vectors);
+                }
+            }
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(part.getFileSystem(conf).open(part), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lineParts = line.split("\t");
+                if (lineParts.length < 2) continue; // Skip empty lines
+                vectors.parse(lineParts[1]);
+                add(Integer.parseInt(lineParts[0]), vectors);
+            }
+        }
+    }
+}
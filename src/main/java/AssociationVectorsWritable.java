@@ -0,0 +1,107 @@
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A lexeme's four association vectors (methods 5, 6, 7, 8), Step3's output value and Step4's input.
+ * Binary, so step4 reads the vectors without parsing text. toString / parse are the text form v5;v6;v7;v8
+ * (IntermediateFormat's text mode).
+ * Each vector carries its VectorStats: computed by the producer (computeStats), written after the vector,
+ * recomputed by parse (the text form has no statistics).
+ */
+public class AssociationVectorsWritable implements Writable {
+
+    public static final int NUM_VECTORS = 4; // v5, v6, v7, v8
+
+    private final SparseVector[] vectors = new SparseVector[NUM_VECTORS];
+    private final VectorStats[] stats = new VectorStats[NUM_VECTORS];
+
+    public AssociationVectorsWritable() {
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            vectors[j] = new SparseVector();
+            stats[j] = new VectorStats();
+        }
+    }
+
+    /**
+     * @param j 0 for v5 ... 3 for v8
+     */
+    public SparseVector get(int j) {
+        return vectors[j];
+    }
+
+    /**
+     * @return vector j's statistics, valid after computeStats, parse, readFields or set
+     */
+    public VectorStats stats(int j) {
+        return stats[j];
+    }
+
+    /**
+     * Computes the statistics of the four vectors, once they are filled.
+     */
+    public void computeStats() {
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            stats[j].compute(vectors[j]);
+        }
+    }
+
+    /**
+     * Replaces the content with a copy of other's vectors.
+     */
+    public void set(AssociationVectorsWritable other) {
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            vectors[j].set(other.vectors[j]);
+            stats[j].set(other.stats[j]);
+        }
+    }
+
+    public void clear() {
+        for (SparseVector vector : vectors) {
+            vector.clear();
+        }
+    }
+
+    /**
+     * Replaces the content with the text form v5;v6;v7;v8 (see toString).
+     */
+    public void parse(String text) {
+        String[] parts = text.split(";", -1); // an empty (zero) vector is kept
+        if (parts.length != NUM_VECTORS) {
+            throw new IllegalArgumentException("Expected 4 vectors (v5;v6;v7;v8), but got " + parts.length);
+        }
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            vectors[j].parse(parts[j]);
+        }
+        computeStats();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            vectors[j].write(out);
+            stats[j].write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            vectors[j].readFields(in);
+            stats[j].readFields(in);
+            stats[j].setNonZeros(vectors[j].size());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < NUM_VECTORS; j++) {
+            if (j > 0) sb.append(';');
+            vectors[j].appendTo(sb);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,168 @@
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.CharacterCodingException;
+
+/**
+ * Allocation-free parser for one line of the Google syntactic-ngrams biarcs corpus.
+ * Scans the UTF-8 bytes of the line in place, nothing is copied unless the caller asks for it.
+ *
+ * Line format: head_word<TAB>syntactic_ngram<TAB>total_count<TAB>counts_by_year...
+ * Syntactic-ngram format: space separated tokens, each token is word/POS/depLabel/headIndex
+ * Example: cease<TAB>cease/VB/ccomp/0 for/IN/prep/1 an/DT/det/4 boys/NN/pobj/2<TAB>56<TAB>1834,2
+ *
+ * Usage:
+ *   if (!parser.reset(line)) return; //malformed line
+ *   while (parser.nextToken()) { ... parser.getWordStart(), parser.getDepLabelLength() ... }
+ */
+public class BiarcsParser {
+
+    private static final byte TAB = '\t';
+    private static final byte SPACE = ' ';
+    private static final byte SLASH = '/';
+
+    private byte[] bytes;
+    private long totalCount;
+
+    // cursor over the syntactic-ngram field
+    private int cursor;
+    private int ngramEnd;
+
+    // slices of the current token (offsets into getBytes())
+    private int wordStart, wordLength;
+    private int posStart, posLength;
+    private int depLabelStart, depLabelLength;
+    private int headIndex;
+
+    /**
+     * Points the parser at a new line and parses the total count.
+     * @return false if the line is malformed (less than 3 fields or a non numeric total count).
+     */
+    public boolean reset(Text line) {
+        return reset(line.getBytes(), 0, line.getLength());
+    }
+
+    public boolean reset(byte[] lineBytes, int start, int length) {
+        bytes = lineBytes;
+        int end = start + length;
+
+        int firstTab = indexOf(TAB, start, end);
+        if (firstTab < 0) return false;
+        int secondTab = indexOf(TAB, firstTab + 1, end);
+        if (secondTab < 0) return false;
+        int thirdTab = indexOf(TAB, secondTab + 1, end);
+        if (thirdTab < 0) thirdTab = end; //no counts by year
+
+        long count = parseLong(secondTab + 1, thirdTab);
+        if (count < 0) return false;
+
+        totalCount = count;
+        cursor = firstTab + 1;
+        ngramEnd = secondTab;
+        return true;
+    }
+
+    /**
+     * Advances to the next well formed token of the syntactic-ngram.
+     * Tokens with less than three '/' are skipped.
+     * @return false when there are no more tokens in the line.
+     */
+    public boolean nextToken() {
+        while (cursor < ngramEnd) {
+            // skip separators
+            if (bytes[cursor] == SPACE) {
+                cursor++;
+                continue;
+            }
+            int tokenStart = cursor;
+            int tokenEnd = indexOf(SPACE, tokenStart, ngramEnd);
+            if (tokenEnd < 0) tokenEnd = ngramEnd;
+            cursor = tokenEnd + 1;
+
+            // parse from the right, the word itself may contain '/'
+            int lastSlash = lastIndexOf(SLASH, tokenStart, tokenEnd);
+            if (lastSlash < 0) continue;
+            int depSlash = lastIndexOf(SLASH, tokenStart, lastSlash);
+            if (depSlash < 0) continue;
+            int posSlash = lastIndexOf(SLASH, tokenStart, depSlash);
+            if (posSlash < 0) continue;
+
+            wordStart = tokenStart;
+            wordLength = posSlash - tokenStart;
+            posStart = posSlash + 1;
+            posLength = depSlash - posStart;
+            depLabelStart = depSlash + 1;
+            depLabelLength = lastSlash - depLabelStart;
+            long head = parseLong(lastSlash + 1, tokenEnd);
+            headIndex = head < 0 ? -1 : (int) head;
+            return true;
+        }
+        return false;
+    }
+
+    //getters
+    public byte[] getBytes() { return bytes; }
+    public long getTotalCount() { return totalCount; }
+    public int getWordStart() { return wordStart; }
+    public int getWordLength() { return wordLength; }
+    public int getPosStart() { return posStart; }
+    public int getPosLength() { return posLength; }
+    public int getDepLabelStart() { return depLabelStart; }
+    public int getDepLabelLength() { return depLabelLength; }
+    public int getHeadIndex() { return headIndex; }
+
+    /**
+     * Decodes the current word. Allocates a String, use the byte slice when possible.
+     */
+    public String getWord() throws CharacterCodingException {
+        return Text.decode(bytes, wordStart, wordLength);
+    }
+
+    public String getDepLabel() throws CharacterCodingException {
+        return Text.decode(bytes, depLabelStart, depLabelLength);
+    }
+
+    /**
+     * Copies the current dependency label into a reusable Text.
+     */
+    public void copyDepLabel(Text target) {
+        target.set(bytes, depLabelStart, depLabelLength);
+    }
+
+    /**
+     * Appends the current dependency label to a Text (used to build lexeme-depLabel features).
+     */
+    public void appendDepLabel(Text target) {
+        target.append(bytes, depLabelStart, depLabelLength);
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(byte b, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a non negative decimal number, surrounding spaces are ignored.
+     * @return the number or -1 if the slice is not a number.
+     */
+    private long parseLong(int from, int to) {
+        while (from < to && bytes[from] == SPACE) from++;
+        while (to > from && bytes[to - 1] == SPACE) to--;
+        if (from == to) return -1;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
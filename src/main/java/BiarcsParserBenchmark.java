@@ -0,0 +1,92 @@
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local micro benchmark (not part of the MapReduce pipeline), compares the records/sec of the old
+ * split() based tokenizer with BiarcsParser on a biarcs file.
+ * Usage: BiarcsParserBenchmark [biarcs_file] [rounds]
+ */
+public class BiarcsParserBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String inputPath = args.length > 0 ? args[0] : "resources/InpuOutputExample/Input/ass3inputtemp.txt";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        List<Text> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputPath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(new Text(line));
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new IOException("BiarcsParserBenchmark: input file is empty: " + inputPath);
+        }
+
+        // warm up both paths so the JIT compiles them before measuring
+        runSplit(lines, rounds / 10);
+        runParser(lines, rounds / 10);
+
+        long records = (long) lines.size() * rounds;
+
+        long start = System.nanoTime();
+        long splitChecksum = runSplit(lines, rounds);
+        double splitSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        long parserChecksum = runParser(lines, rounds);
+        double parserSeconds = (System.nanoTime() - start) / 1e9;
+
+        if (splitChecksum != parserChecksum) {
+            throw new IllegalStateException("Checksum mismatch: split=" + splitChecksum + ", parser=" + parserChecksum);
+        }
+
+        System.out.printf("records:        %d%n", records);
+        System.out.printf("split() before: %.0f records/sec%n", records / splitSeconds);
+        System.out.printf("BiarcsParser:   %.0f records/sec%n", records / parserSeconds);
+        System.out.printf("speedup:        %.2fx%n", splitSeconds / parserSeconds);
+    }
+
+    // The tokenizer as it was in Step1/Step2/Step02 mappers
+    private static long runSplit(List<Text> lines, int rounds) {
+        long checksum = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (Text line : lines) {
+                String[] parts = line.toString().split("\t");
+                LongWritable totalCount = new LongWritable(Long.parseLong(parts[2]));
+                String[] tokens = parts[1].split(" ");
+                for (String token : tokens) {
+                    String[] tokenParts = token.split("/");
+                    Text word = new Text(tokenParts[0]);
+                    Text depLabel = new Text(tokenParts[2]);
+                    checksum += word.getLength() + depLabel.getLength() + totalCount.get();
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static long runParser(List<Text> lines, int rounds) {
+        BiarcsParser parser = new BiarcsParser();
+        Text depLabel = new Text();
+        LongWritable totalCount = new LongWritable();
+        long checksum = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (Text line : lines) {
+                if (!parser.reset(line)) continue;
+                totalCount.set(parser.getTotalCount());
+                while (parser.nextToken()) {
+                    parser.copyDepLabel(depLabel);
+                    checksum += parser.getWordLength() + depLabel.getLength() + totalCount.get();
+                }
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,198 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Dense int ids for the gold lexemes (from step01) and the dependency labels (from step02).
+ * Ids follow the lexicographic order of the names, so sorting by id is sorting by name.
+ *
+ * The tables are created once by Step03 under outputs/dictionary (one name per line, line number = id)
+ * and shipped to the tasks as SideData (see addToJob / load).
+ */
+public class Dictionary {
+
+    public static final String DICTIONARY_DIR = "outputs/dictionary";
+    public static final String LEXEMES_FILE = "lexemes";
+    public static final String DEP_LABELS_FILE = "deplabels";
+
+    public static final int NOT_FOUND = -1;
+
+    private final IdTable lexemes;
+    private final IdTable depLabels;
+
+    public Dictionary(Collection<String> lexemes, Collection<String> depLabels) {
+        this.lexemes = new IdTable(new TreeSet<>(lexemes));
+        this.depLabels = new IdTable(new TreeSet<>(depLabels));
+    }
+
+    public int lexemeId(String lexeme) {
+        return lexemes.id(lexeme);
+    }
+
+    public int depLabelId(String depLabel) {
+        return depLabels.id(depLabel);
+    }
+
+    /**
+     * Looks up a dependency label by its UTF-8 bytes (e.g. a BiarcsParser slice), no allocation.
+     */
+    public int depLabelId(byte[] bytes, int start, int length) {
+        return depLabels.id(bytes, start, length);
+    }
+
+    public String lexeme(int id) {
+        return lexemes.names[id];
+    }
+
+    public String depLabel(int id) {
+        return depLabels.names[id];
+    }
+
+    public int numLexemes() {
+        return lexemes.names.length;
+    }
+
+    public int numDepLabels() {
+        return depLabels.names.length;
+    }
+
+    /**
+     * Writes the two id tables into dir.
+     */
+    public void write(FileSystem fs, Path dir) throws IOException {
+        writeTable(fs, new Path(dir, LEXEMES_FILE), lexemes.names);
+        writeTable(fs, new Path(dir, DEP_LABELS_FILE), depLabels.names);
+    }
+
+    /**
+     * Ships the id tables to the job's tasks as side data.
+     */
+    public static void addToJob(Job job) throws IOException {
+        Path dir = PipelinePaths.path(job.getConfiguration(), DICTIONARY_DIR);
+        SideData.addToJob(job, LEXEMES_FILE, new Path(dir, LEXEMES_FILE));
+        SideData.addToJob(job, DEP_LABELS_FILE, new Path(dir, DEP_LABELS_FILE));
+    }
+
+    /**
+     * Loads the id tables shipped by addToJob (call from a task's setup).
+     */
+    public static Dictionary load(Configuration conf) throws IOException {
+        List<String> lexemes = Collections.synchronizedList(new ArrayList<>());
+        List<String> depLabels = Collections.synchronizedList(new ArrayList<>());
+        SideData.forEachLine(conf, LEXEMES_FILE, lexemes::add);
+        SideData.forEachLine(conf, DEP_LABELS_FILE, depLabels::add);
+        if (lexemes.isEmpty() || depLabels.isEmpty()) {
+            throw new IOException("Dictionary.load: Loaded dictionary is empty.");
+        }
+        // the ids are the lexicographic order, so the order the lines were read in does not matter
+        return new Dictionary(lexemes, depLabels);
+    }
+
+    /**
+     * Reads the id tables written by write (for a driver, tasks use load).
+     */
+    public static Dictionary read(FileSystem fs, Path dir) throws IOException {
+        List<String> lexemes = readTable(fs, new Path(dir, LEXEMES_FILE));
+        List<String> depLabels = readTable(fs, new Path(dir, DEP_LABELS_FILE));
+        if (lexemes.isEmpty() || depLabels.isEmpty()) {
+            throw new IOException("Dictionary.read: dictionary in " + dir + " is empty.");
+        }
+        return new Dictionary(lexemes, depLabels);
+    }
+
+    private static List<String> readTable(FileSystem fs, Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                names.add(line);
+            }
+        }
+        return names;
+    }
+
+    private static void writeTable(FileSystem fs, Path file, String[] names) throws IOException {
+        try (FSDataOutputStream out = fs.create(file, true);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (String name : names) {
+                writer.write(name);
+                writer.write('\n');
+            }
+        }
+    }
+
+
+    /**
+     * Sorted names with two open-addressing indexes: by String (hashCode is cached by the String)
+     * and by UTF-8 bytes. Only int[] and the names, no boxed Integer per entry.
+     */
+    private static class IdTable {
+        private final String[] names;
+        private final byte[][] bytes;
+        private final int[] byString; //id + 1, 0 is an empty slot
+        private final int[] byBytes;
+        private final int mask;
+
+        IdTable(TreeSet<String> sortedNames) {
+            names = sortedNames.toArray(new String[0]);
+            bytes = new byte[names.length][];
+            int capacity = Integer.highestOneBit(Math.max(names.length, 8) * 4 - 1);
+            byString = new int[capacity];
+            byBytes = new int[capacity];
+            mask = capacity - 1;
+
+            for (int id = 0; id < names.length; id++) {
+                bytes[id] = names[id].getBytes(StandardCharsets.UTF_8);
+                int slot = mix(names[id].hashCode()) & mask;
+                while (byString[slot] != 0) slot = (slot + 1) & mask;
+                byString[slot] = id + 1;
+                slot = mix(WritableComparator.hashBytes(bytes[id], 0, bytes[id].length)) & mask;
+                while (byBytes[slot] != 0) slot = (slot + 1) & mask;
+                byBytes[slot] = id + 1;
+            }
+        }
+
+        int id(String name) {
+            int slot = mix(name.hashCode()) & mask;
+            while (byString[slot] != 0) {
+                int id = byString[slot] - 1;
+                if (names[id].equals(name)) return id;
+                slot = (slot + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        int id(byte[] key, int start, int length) {
+            int slot = mix(WritableComparator.hashBytes(key, start, length)) & mask;
+            while (byBytes[slot] != 0) {
+                int id = byBytes[slot] - 1;
+                if (WritableComparator.compareBytes(bytes[id], 0, bytes[id].length, key, start, length) == 0) return id;
+                slot = (slot + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            return hash;
+        }
+    }
+}
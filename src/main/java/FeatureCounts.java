@@ -0,0 +1,200 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Step1's output, count(L=l) and count(F=f) keyed by Dictionary ids, as a compact sorted binary file
+ * that is memory-mapped (off-heap): opening it costs no parsing and a lookup creates no object.
+ *
+ * File format (big-endian), version 3:
+ *   int magic, int version, int numLexemes, int numDepLabels, int numEntries,
+ *   int[numLexemes + 1] index       - first entry of each lexeme (entries are sorted by (lexemeId, depLabelId))
+ *   int[numEntries]     depLabelIds - NO_DEP_LABEL for the lexeme's own count(L=l)
+ *   long[numEntries]    counts
+ * A lookup is the lexeme's index range + a binary search over its (at most numDepLabels + 1) entries,
+ * count(L=l) is the first entry of the range. Opening is O(1): no parsing, no sorting.
+ * The totals count(L) and count(F) are not in the file, they are Step1's counters in the PipelineMetadata record.
+ * A file of another version is rejected (rebuild it by re-running Step1).
+ *
+ * Built once by Step1's driver (see build) from all the part files of step1's output, shipped to the tasks
+ * as SideData and mapped from the localized copy (see Utils.retrieveFeatureCounts).
+ */
+public class FeatureCounts {
+
+    public static final String FEATURE_COUNTS_FILE = "outputs/featurecounts.bin";
+
+    private static final int MAGIC = 0x46434E54; //"FCNT"
+    private static final int VERSION = 3; // 3: no totals (see PipelineMetadata)
+    private static final int HEADER_BYTES = 5 * 4;
+
+    private final MappedByteBuffer buffer;
+    private final int numLexemes;
+    private final int numDepLabels;
+    private final int numEntries;
+    private final int depLabelIdsOffset;
+    private final int countsOffset;
+
+    private FeatureCounts(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("FeatureCounts: not a feature counts file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("FeatureCounts: version " + buffer.getInt(4) + " found, expected " + VERSION + ". Re-run Step1.");
+        }
+        numLexemes = buffer.getInt(8);
+        numDepLabels = buffer.getInt(12);
+        numEntries = buffer.getInt(16);
+        depLabelIdsOffset = HEADER_BYTES + (numLexemes + 1) * 4;
+        countsOffset = depLabelIdsOffset + numEntries * 4;
+    }
+
+    /**
+     * Memory-maps a local feature counts file. The mapping stays valid after the channel is closed.
+     */
+    public static FeatureCounts open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new FeatureCounts(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * count(L=l)
+     */
+    public long lexemeCount(int lexemeId) {
+        if (lexemeId < 0 || lexemeId >= numLexemes) return 0;
+        int first = buffer.getInt(HEADER_BYTES + lexemeId * 4);
+        int end = buffer.getInt(HEADER_BYTES + (lexemeId + 1) * 4);
+        // NO_DEP_LABEL sorts first
+        return first < end && depLabelId(first) == FeatureIdWritable.NO_DEP_LABEL ? count(first) : 0;
+    }
+
+    /**
+     * count(F=f) for the feature (lexeme, depLabel)
+     */
+    public long featureCount(int lexemeId, int depLabelId) {
+        return find(lexemeId, depLabelId);
+    }
+
+    public int numLexemes() {
+        return numLexemes;
+    }
+
+    public int numDepLabels() {
+        return numDepLabels;
+    }
+
+    public boolean isEmpty() {
+        return numEntries == 0;
+    }
+
+    private long find(int lexemeId, int depLabelId) {
+        if (lexemeId < 0 || lexemeId >= numLexemes) return 0;
+        int low = buffer.getInt(HEADER_BYTES + lexemeId * 4);
+        int high = buffer.getInt(HEADER_BYTES + (lexemeId + 1) * 4) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midDepLabelId = depLabelId(mid);
+            if (midDepLabelId < depLabelId) low = mid + 1;
+            else if (midDepLabelId > depLabelId) high = mid - 1;
+            else return count(mid);
+        }
+        return 0;
+    }
+
+    private int depLabelId(int entry) {
+        return buffer.getInt(depLabelIdsOffset + entry * 4);
+    }
+
+    private long count(int entry) {
+        return buffer.getLong(countsOffset + entry * 8);
+    }
+
+
+    /**
+     * Reads all the part files of step1's output and writes the binary file.
+     * The part files are SequenceFiles of (FeatureIdWritable, LongWritable), or in IntermediateFormat's text mode
+     * lines of: lexemeId[-depLabelId] count.
+     */
+    public static void build(Configuration conf, FileSystem fs, Path step1Output, Path file, int numLexemes, int numDepLabels) throws IOException {
+        LongToLongMap counts = new LongToLongMap(1 << 16); // key: FeatureIdWritable.pack
+        boolean text = IntermediateFormat.isText(conf);
+        for (FileStatus part : fs.globStatus(new Path(step1Output, "part-*"))) {
+            if (!text) {
+                FeatureIdWritable key = new FeatureIdWritable();
+                LongWritable count = new LongWritable();
+                try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part.getPath()))) {
+                    while (reader.next(key, count)) {
+                        counts.add(FeatureIdWritable.pack(key.getLexemeId(), key.getDepLabelId()), count.get());
+                    }
+                }
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(part.getPath()), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] lineParts = line.trim().split("\t");
+                    if (lineParts.length < 2) continue; // Skip empty lines
+                    String key = lineParts[0];
+                    int dash = key.indexOf('-');
+                    int lexemeId = Integer.parseInt(dash < 0 ? key : key.substring(0, dash));
+                    int depLabelId = dash < 0 ? FeatureIdWritable.NO_DEP_LABEL : Integer.parseInt(key.substring(dash + 1));
+                    counts.add(FeatureIdWritable.pack(lexemeId, depLabelId), Long.parseLong(lineParts[1]));
+                }
+            }
+        }
+        if (counts.size() == 0) {
+            throw new IOException("FeatureCounts.build: step1's output is empty: " + step1Output);
+        }
+
+        // sort by (lexemeId, depLabelId), the packed long does not sort NO_DEP_LABEL first so flip its sign bit
+        long[] keys = new long[counts.size()];
+        int n = 0;
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (counts.isUsed(slot)) keys[n++] = counts.key(slot) ^ 0x80000000L;
+        }
+        Arrays.sort(keys);
+
+        int[] index = new int[numLexemes + 1];
+        for (long key : keys) {
+            index[FeatureIdWritable.unpackLexemeId(key ^ 0x80000000L) + 1]++;
+        }
+        for (int lexemeId = 0; lexemeId < numLexemes; lexemeId++) {
+            index[lexemeId + 1] += index[lexemeId];
+        }
+
+        try (FSDataOutputStream fileOut = fs.create(file, true);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numLexemes);
+            out.writeInt(numDepLabels);
+            out.writeInt(keys.length);
+            for (int offset : index) {
+                out.writeInt(offset);
+            }
+            for (long key : keys) {
+                out.writeInt(FeatureIdWritable.unpackDepLabelId(key ^ 0x80000000L));
+            }
+            for (long key : keys) {
+                out.writeLong(counts.get(key ^ 0x80000000L, 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary key for a lexeme or a feature (lexeme, depLabel), both given by their Dictionary ids.
+ * A lexeme key (count(L=l)) has depLabelId = NO_DEP_LABEL.
+ * Serialized as two big-endian ints, ordered by (lexemeId, depLabelId).
+ */
+public class FeatureIdWritable implements WritableComparable<FeatureIdWritable> {
+
+    static { // register the raw comparator, used by the shuffle's sort and merge
+        WritableComparator.define(FeatureIdWritable.class, new Comparator());
+    }
+
+    public static final int NO_DEP_LABEL = -1;
+
+    private int lexemeId;
+    private int depLabelId;
+
+    public FeatureIdWritable() {
+        this(0, NO_DEP_LABEL);
+    }
+
+    public FeatureIdWritable(int lexemeId, int depLabelId) {
+        set(lexemeId, depLabelId);
+    }
+
+    public void set(int lexemeId, int depLabelId) {
+        this.lexemeId = lexemeId;
+        this.depLabelId = depLabelId;
+    }
+
+    public int getLexemeId() {
+        return lexemeId;
+    }
+
+    public int getDepLabelId() {
+        return depLabelId;
+    }
+
+    public boolean isLexeme() {
+        return depLabelId == NO_DEP_LABEL;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(lexemeId);
+        out.writeInt(depLabelId);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        lexemeId = in.readInt();
+        depLabelId = in.readInt();
+    }
+
+    @Override
+    public int compareTo(FeatureIdWritable other) {
+        int cmp = Integer.compare(lexemeId, other.lexemeId);
+        return cmp != 0 ? cmp : Integer.compare(depLabelId, other.depLabelId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FeatureIdWritable)) return false;
+        FeatureIdWritable other = (FeatureIdWritable) o;
+        return lexemeId == other.lexemeId && depLabelId == other.depLabelId;
+    }
+
+    @Override
+    public int hashCode() {
+        return lexemeId * 163 + depLabelId;
+    }
+
+    /**
+     * Text form (used by TextOutputFormat): lexemeId for a lexeme, lexemeId-depLabelId for a feature.
+     */
+    @Override
+    public String toString() {
+        return isLexeme() ? String.valueOf(lexemeId) : lexemeId + "-" + depLabelId;
+    }
+
+    /**
+     * Packs the key into one long, used as a primitive map key.
+     */
+    public static long pack(int lexemeId, int depLabelId) {
+        return ((long) lexemeId << 32) | (depLabelId & 0xFFFFFFFFL);
+    }
+
+    public static int unpackLexemeId(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    public static int unpackDepLabelId(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Compares the serialized keys (two big-endian ints) without deserializing them.
+     * lexemeId is never negative, so both ints are compared at once as one long
+     * (the sign bit of depLabelId is flipped so NO_DEP_LABEL sorts first).
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(FeatureIdWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return Long.compare(readLong(b1, s1) ^ 0x80000000L, readLong(b2, s2) ^ 0x80000000L);
+        }
+    }
+
+    /**
+     * Grouping comparator for a secondary sort on the depLabelId: the keys of a lexeme are one reduce group,
+     * the values arrive sorted by the full key (see Comparator), so by depLabelId.
+     */
+    public static class LexemeComparator extends WritableComparator {
+
+        public LexemeComparator() {
+            super(FeatureIdWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return Integer.compare(readInt(b1, s1), readInt(b2, s2));
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return Integer.compare(((FeatureIdWritable) a).lexemeId, ((FeatureIdWritable) b).lexemeId);
+        }
+    }
+
+    /**
+     * Partitions by lexemeId only, so all the features of a lexeme reach the same reducer (see LexemeComparator).
+     */
+    public static class LexemePartitioner<V> extends Partitioner<FeatureIdWritable, V> {
+
+        @Override
+        public int getPartition(FeatureIdWritable key, V value, int numPartitions) {
+            return (key.lexemeId & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+}
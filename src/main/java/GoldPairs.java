@@ -0,0 +1,165 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The pairs of word-relatedness.txt as Dictionary ids, the only pairs Step4 has to compare
+ * (or, to score all the pairs, LshCandidates' candidate pairs, see loadCandidates).
+ *
+ * The words are stemmed twice, like the lexemes of the Dictionary (Step01 and Step03 both stem).
+ * Each pair is kept once, ordered (first < second) like LexemePairWritable, pairs of a word with itself are dropped.
+ * For the mapper side, partners(id) lists the lexemes paired with id in either order (CSR arrays, no boxing).
+ */
+public class GoldPairs {
+
+    public static final String GOLD_FILE = "word-relatedness.txt";
+    public static final String GOLD_PAIRS = "goldpairs"; //side data name
+    public static final String CANDIDATE_PAIRS = "candidatepairs"; //side data name of LshCandidates' output
+
+    private final int[] firsts;  //pair i = (firsts[i], seconds[i]), sorted
+    private final int[] seconds;
+    private final int[] partnerOffsets; //partners of lexeme l: partners[partnerOffsets[l] .. partnerOffsets[l+1])
+    private final int[] partners;
+
+    /**
+     * @param pairs ordered pairs packed as first << 32 | second
+     */
+    private GoldPairs(long[] pairs, int numLexemes) {
+        Arrays.sort(pairs);
+        firsts = new int[pairs.length];
+        seconds = new int[pairs.length];
+        partnerOffsets = new int[numLexemes + 1];
+        for (int i = 0; i < pairs.length; i++) {
+            firsts[i] = (int) (pairs[i] >>> 32);
+            seconds[i] = (int) pairs[i];
+            partnerOffsets[firsts[i] + 1]++;
+            partnerOffsets[seconds[i] + 1]++;
+        }
+        for (int l = 0; l < numLexemes; l++) {
+            partnerOffsets[l + 1] += partnerOffsets[l];
+        }
+        partners = new int[2 * pairs.length];
+        int[] next = Arrays.copyOf(partnerOffsets, numLexemes);
+        for (int i = 0; i < pairs.length; i++) {
+            partners[next[firsts[i]]++] = seconds[i];
+            partners[next[seconds[i]]++] = firsts[i];
+        }
+    }
+
+    public int numPairs() {
+        return firsts.length;
+    }
+
+    public int first(int pair) {
+        return firsts[pair];
+    }
+
+    public int second(int pair) {
+        return seconds[pair];
+    }
+
+    /**
+     * @return the start of lexemeId's partners, see partner(i)
+     */
+    public int partnersStart(int lexemeId) {
+        return partnerOffsets[lexemeId];
+    }
+
+    /**
+     * @return the end (exclusive) of lexemeId's partners
+     */
+    public int partnersEnd(int lexemeId) {
+        return partnerOffsets[lexemeId + 1];
+    }
+
+    public int partner(int i) {
+        return partners[i];
+    }
+
+    /**
+     * Writes the pairs as lines of: first <tab> second.
+     */
+    public void write(FileSystem fs, Path file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < numPairs(); i++) {
+                writer.write(firsts[i] + "\t" + seconds[i] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Ships word-relatedness.txt to the job's tasks as side data.
+     */
+    public static void addToJob(Job job) throws IOException {
+        SideData.addToJob(job, GOLD_PAIRS, PipelinePaths.sideData(job.getConfiguration(), GOLD_FILE));
+    }
+
+    /**
+     * Loads the pairs shipped by addToJob (call from a task's setup, or from the driver after addToJob).
+     * Words that are not in the dictionary are skipped.
+     */
+    public static GoldPairs load(Configuration conf, Dictionary dictionary) throws IOException {
+        Set<Long> pairs = Collections.synchronizedSet(new TreeSet<>());
+        SideData.forEachLine(conf, GOLD_PAIRS, line -> {
+            String[] fields = line.split("\\s+"); // Split by any whitespace (TAB or SPACE), like Step01
+            if (fields.length < 2) return; // Skip malformed lines
+
+            int lexemeId1 = dictionary.lexemeId(Utils.stemAndReturn(Utils.stemAndReturn(fields[0]).trim()));
+            int lexemeId2 = dictionary.lexemeId(Utils.stemAndReturn(Utils.stemAndReturn(fields[1]).trim()));
+            if (lexemeId1 == Dictionary.NOT_FOUND || lexemeId2 == Dictionary.NOT_FOUND || lexemeId1 == lexemeId2) return;
+
+            long first = Math.min(lexemeId1, lexemeId2);
+            long second = Math.max(lexemeId1, lexemeId2);
+            pairs.add(first << 32 | second);
+        });
+        if (pairs.isEmpty()) {
+            throw new IOException("GoldPairs.load: no gold pair found in the dictionary.");
+        }
+
+        long[] packed = new long[pairs.size()];
+        int i = 0;
+        for (long pair : pairs) {
+            packed[i++] = pair;
+        }
+        return new GoldPairs(packed, dictionary.numLexemes());
+    }
+
+    /**
+     * Ships candidate pairs (LshCandidates' output, lines of lexemeId1 <tab> lexemeId2) to the job's tasks as side data.
+     */
+    public static void addCandidatesToJob(Job job, Path candidates) throws IOException {
+        SideData.addToJob(job, CANDIDATE_PAIRS, candidates);
+    }
+
+    /**
+     * Loads the candidate pairs shipped by addCandidatesToJob, already ids (no dictionary lookup) and each written once.
+     */
+    public static GoldPairs loadCandidates(Configuration conf, int numLexemes) throws IOException {
+        long[][] pairs = {new long[1024]}; // grown under the lock, the files are read concurrently
+        int[] numPairs = {0};
+        SideData.forEachLine(conf, CANDIDATE_PAIRS, line -> {
+            int tab = line.indexOf('\t');
+            if (tab < 0) return; // Skip malformed lines
+            long first = Integer.parseInt(line.substring(0, tab));
+            long second = Integer.parseInt(line.substring(tab + 1).trim());
+            synchronized (pairs) {
+                if (numPairs[0] == pairs[0].length) {
+                    pairs[0] = Arrays.copyOf(pairs[0], 2 * numPairs[0]);
+                }
+                pairs[0][numPairs[0]++] = Math.min(first, second) << 32 | Math.max(first, second);
+            }
+        });
+        return new GoldPairs(Arrays.copyOf(pairs[0], numPairs[0]), numLexemes);
+    }
+}
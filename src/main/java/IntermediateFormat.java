@@ -0,0 +1,132 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DeflateCodec;
+import org.apache.hadoop.io.compress.Lz4Codec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.io.compress.ZStandardCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The format of the intermediate outputs (step1 -> step1's driver, step2 -> step3, step3 -> step4) and the
+ * compression of the shuffles. Every step must use the same options, App passes them to all the steps as arguments:
+ *   --intermediate=sequence (default) block-compressed SequenceFiles of the binary Writables
+ *   --intermediate=text     TextOutputFormat, uncompressed, for debugging (the outputs can be read with cat)
+ *   --codec=snappy (default) | lz4 | zstd | deflate | none, for the SequenceFiles and the map outputs
+ * The small outputs of step01/step02 and the final output of step4 stay text.
+ */
+public class IntermediateFormat {
+
+    public static final String FORMAT_KEY = "pipeline.intermediate.format";
+    public static final String CODEC_KEY = "pipeline.intermediate.codec";
+
+    public static final String SEQUENCE = "sequence";
+    public static final String TEXT = "text";
+
+    private static final String FORMAT_ARG = "--intermediate=";
+    private static final String CODEC_ARG = "--codec=";
+
+    /**
+     * Copies the --intermediate= and --codec= arguments of a step into its Configuration.
+     */
+    public static void parseArgs(Configuration conf, String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(FORMAT_ARG)) {
+                conf.set(FORMAT_KEY, arg.substring(FORMAT_ARG.length()));
+            } else if (arg.startsWith(CODEC_ARG)) {
+                conf.set(CODEC_KEY, arg.substring(CODEC_ARG.length()));
+            }
+        }
+        System.out.println("[DEBUG] Intermediate format: " + conf.get(FORMAT_KEY, SEQUENCE) + ", codec: " + conf.get(CODEC_KEY, "snappy"));
+    }
+
+    /**
+     * @return the --intermediate= and --codec= arguments among args, to pass on to every step
+     */
+    public static List<String> selectArgs(String[] args) {
+        List<String> selected = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(FORMAT_ARG) || arg.startsWith(CODEC_ARG)) {
+                selected.add(arg);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return true in the text debug mode
+     */
+    public static boolean isText(Configuration conf) {
+        String format = conf.get(FORMAT_KEY, SEQUENCE);
+        if (!format.equals(SEQUENCE) && !format.equals(TEXT)) {
+            throw new IllegalArgumentException("IntermediateFormat: unknown format " + format + " (sequence or text)");
+        }
+        return format.equals(TEXT);
+    }
+
+    /**
+     * @return the codec class, null for none
+     */
+    public static Class<? extends CompressionCodec> codec(Configuration conf) {
+        String codec = conf.get(CODEC_KEY, "snappy");
+        switch (codec) {
+            case "snappy":
+                return SnappyCodec.class;
+            case "lz4":
+                return Lz4Codec.class;
+            case "zstd":
+                return ZStandardCodec.class;
+            case "deflate":
+                return DeflateCodec.class;
+            case "none":
+                return null;
+            default:
+                throw new IllegalArgumentException("IntermediateFormat: unknown codec " + codec + " (snappy, lz4, zstd, deflate or none)");
+        }
+    }
+
+    /**
+     * Compresses the map outputs (the shuffle and its spills) with the codec.
+     */
+    public static void compressMapOutput(Job job) {
+        Configuration conf = job.getConfiguration();
+        Class<? extends CompressionCodec> codec = codec(conf);
+        if (codec == null) return;
+        conf.setBoolean("mapreduce.map.output.compress", true);
+        conf.setClass("mapreduce.map.output.compress.codec", codec, CompressionCodec.class);
+    }
+
+    /**
+     * Sets the job's output format: a block-compressed SequenceFile, or text in the debug mode.
+     * The caller sets the output key/value classes (they may differ in the text mode).
+     */
+    public static void setOutput(Job job) {
+        Configuration conf = job.getConfiguration();
+        if (isText(conf)) {
+            job.setOutputFormatClass(TextOutputFormat.class);
+            return;
+        }
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        Class<? extends CompressionCodec> codec = codec(conf);
+        if (codec != null) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, codec);
+            SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        }
+    }
+
+    /**
+     * Sets the job's input format to read a previous step's intermediate output.
+     */
+    public static void setInput(Job job) {
+        job.setInputFormatClass(isText(job.getConfiguration()) ? TextInputFormat.class : SequenceFileInputFormat.class);
+    }
+}
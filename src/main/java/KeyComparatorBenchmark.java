@@ -0,0 +1,92 @@
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Local micro benchmark (not part of the MapReduce pipeline), compares the shuffle sort cost of the old Text keys
+ * (lexeme-depLabel, lexeme1 lexeme2) with the binary id keys and their raw comparators.
+ * Usage: KeyComparatorBenchmark [keys] [rounds]
+ */
+public class KeyComparatorBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String[] lexemes = {"alligator", "crocod", "frog", "lizard", "turtl", "walk", "instant", "boi", "cea", "time"};
+        String[] depLabels = {"ccomp", "det", "pobj", "prep", "nsubj", "dobj", "amod"};
+
+        Random random = new Random(42);
+        Writable[] featureTexts = new Writable[keys], featureIds = new Writable[keys];
+        Writable[] pairTexts = new Writable[keys], pairIds = new Writable[keys];
+        for (int i = 0; i < keys; i++) {
+            int lexeme = random.nextInt(lexemes.length), other = random.nextInt(lexemes.length), dep = random.nextInt(depLabels.length);
+            // suffix so the lexemes are not all equal prefixes
+            featureTexts[i] = new Text(lexemes[lexeme] + i % 1000 + "-" + depLabels[dep]);
+            featureIds[i] = new FeatureIdWritable(lexeme * 1000 + i % 1000, dep);
+            pairTexts[i] = new Text(lexemes[lexeme] + i % 1000 + " " + lexemes[other] + i % 997);
+            pairIds[i] = new LexemePairWritable(lexeme * 1000 + i % 1000, other * 1000 + i % 997);
+        }
+
+        // deserializing comparators, what Hadoop uses for a key type without a registered RawComparator
+        RawComparator<?> featureDeserializing = new WritableComparator(FeatureIdWritable.class, true) {};
+        RawComparator<?> pairDeserializing = new WritableComparator(LexemePairWritable.class, true) {};
+
+        report("feature keys", WritableComparator.get(Text.class), serialize(featureTexts),
+                featureDeserializing, new FeatureIdWritable.Comparator(), serialize(featureIds), rounds);
+        report("pair keys   ", WritableComparator.get(Text.class), serialize(pairTexts),
+                pairDeserializing, new LexemePairWritable.Comparator(), serialize(pairIds), rounds);
+    }
+
+    private static void report(String name, RawComparator<?> textComparator, byte[][] texts,
+                               RawComparator<?> deserializingComparator, RawComparator<?> rawComparator, byte[][] ids,
+                               int rounds) {
+        double textSeconds = time(textComparator, texts, rounds);
+        double deserializingSeconds = time(deserializingComparator, ids, rounds);
+        double rawSeconds = time(rawComparator, ids, rounds);
+
+        long comparisons = (long) (texts.length - 1) * rounds;
+        System.out.printf("%s: Text %.0f cmp/sec, ids deserializing %.0f cmp/sec, ids raw %.0f cmp/sec, bytes per key %.1f -> %.1f%n",
+                name, comparisons / textSeconds, comparisons / deserializingSeconds, comparisons / rawSeconds,
+                averageLength(texts), averageLength(ids));
+    }
+
+    private static double time(RawComparator<?> comparator, byte[][] keys, int rounds) {
+        compareAll(comparator, keys, rounds / 5 + 1); // warm up
+        long start = System.nanoTime();
+        compareAll(comparator, keys, rounds);
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    // compares each serialized key with the next one, like the merge of sorted spills does
+    private static long compareAll(RawComparator<?> comparator, byte[][] keys, int rounds) {
+        long checksum = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 1; i < keys.length; i++) {
+                checksum += comparator.compare(keys[i - 1], 0, keys[i - 1].length, keys[i], 0, keys[i].length);
+            }
+        }
+        return checksum;
+    }
+
+    private static byte[][] serialize(Writable[] keys) throws IOException {
+        byte[][] serialized = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            keys[i].write(new DataOutputStream(bytes));
+            serialized[i] = bytes.toByteArray();
+        }
+        return serialized;
+    }
+
+    private static double averageLength(byte[][] keys) {
+        long total = 0;
+        for (byte[] key : keys) total += key.length;
+        return (double) total / keys.length;
+    }
+}
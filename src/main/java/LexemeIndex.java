@@ -0,0 +1,348 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Top-K nearest lexemes over step3's association vectors: "the k lexemes most similar to X under measure m with association a".
+ * The in-process API (topK), TopKQuery runs it as a batch job.
+ *
+ * For each association (v5 ... v8) an inverted index maps a feature (depLabelId) to the lexemes whose vector has it
+ * (CSR arrays, values divided by the vector's norm), so a query only touches the lexemes that share a feature with it:
+ *   - cosine (method 11): term-at-a-time over the query's features by decreasing score bound (max-score).
+ *     Once the k-th best lower bound beats what the remaining features can still add, no new candidate is created.
+ *   - the other measures: every lexeme sharing a feature is scored exactly (SimilarityMeasures with VectorStats).
+ * A lexeme that shares no feature with the query is scored from the statistics alone (SimilarityMeasures.measureDisjoint):
+ * cosine 0, and for L1, L2 and JS the score only grows with one statistic, so they are walked in that order and
+ * the walk stops at the first one that can't enter the top k. Min/max and Dice are 0 when the association has
+ * no negative entry, otherwise the statistics of the disjoint lexemes are scanned (O(1) each).
+ *
+ * Not thread-safe: a query uses scratch arrays of the index.
+ */
+public class LexemeIndex {
+
+    private static final int NUM_ASSOCIATIONS = AssociationVectorsWritable.NUM_VECTORS;
+
+    private final int numLexemes;
+    private final SparseVector[][] vectors; // [association][lexemeId], null if step3 has no vectors for the lexeme
+    private final VectorStats[][] stats;
+
+    // inverted index, per association: the postings of feature f are postings*[postingOffsets[f] .. postingOffsets[f+1])
+    private final int[][] postingOffsets;
+    private final int[][] postingLexemes;
+    private final double[][] postingValues; // value / norm of the lexeme's vector
+    private final double[][] maxPostingValues; // [association][feature] max |posting value|, the cosine bound
+
+    // the lexemes with vectors, sorted by the statistic their disjoint L1 / L2 / JS score grows with
+    private final int[][] byL1Sum;
+    private final int[][] bySumOfSquares;
+    private final int[][] byPositiveSum;
+    private final boolean[] hasNegative;
+
+    // query scratch
+    private final int[] marks;
+    private int stamp = 0;
+    private final double[] accumulators;
+    private final double[] scores = new double[SimilarityMeasures.NUM_MEASURES];
+
+    /**
+     * A result of topK.
+     */
+    public static class Neighbor {
+        private final int lexemeId;
+        private final double score;
+
+        public Neighbor(int lexemeId, double score) {
+            this.lexemeId = lexemeId;
+            this.score = score;
+        }
+
+        public int getLexemeId() {
+            return lexemeId;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return lexemeId + ":" + score;
+        }
+    }
+
+    /**
+     * Indexes all the vectors of the store.
+     */
+    public LexemeIndex(AssociationVectorStore store, int numDepLabels) {
+        numLexemes = store.numLexemes();
+        vectors = new SparseVector[NUM_ASSOCIATIONS][numLexemes];
+        stats = new VectorStats[NUM_ASSOCIATIONS][numLexemes];
+        AssociationVectorsWritable record = new AssociationVectorsWritable();
+        for (int lexemeId = 0; lexemeId < numLexemes; lexemeId++) {
+            if (!store.contains(lexemeId)) continue;
+            store.get(lexemeId, record);
+            for (int a = 0; a < NUM_ASSOCIATIONS; a++) {
+                vectors[a][lexemeId] = new SparseVector(Math.max(record.get(a).size(), 1));
+                vectors[a][lexemeId].set(record.get(a));
+                stats[a][lexemeId] = new VectorStats();
+                stats[a][lexemeId].set(record.stats(a));
+            }
+        }
+
+        postingOffsets = new int[NUM_ASSOCIATIONS][];
+        postingLexemes = new int[NUM_ASSOCIATIONS][];
+        postingValues = new double[NUM_ASSOCIATIONS][];
+        maxPostingValues = new double[NUM_ASSOCIATIONS][];
+        byL1Sum = new int[NUM_ASSOCIATIONS][];
+        bySumOfSquares = new int[NUM_ASSOCIATIONS][];
+        byPositiveSum = new int[NUM_ASSOCIATIONS][];
+        hasNegative = new boolean[NUM_ASSOCIATIONS];
+        for (int a = 0; a < NUM_ASSOCIATIONS; a++) {
+            buildPostings(a, numDepLabels);
+            buildOrders(a);
+        }
+
+        marks = new int[numLexemes];
+        accumulators = new double[numLexemes];
+    }
+
+    private void buildPostings(int a, int numDepLabels) {
+        int[] offsets = new int[numDepLabels + 1];
+        for (SparseVector vector : vectors[a]) {
+            if (vector == null) continue;
+            for (int entry = 0; entry < vector.size(); entry++) {
+                offsets[vector.index(entry) + 1]++;
+            }
+        }
+        for (int f = 0; f < numDepLabels; f++) {
+            offsets[f + 1] += offsets[f];
+        }
+        int[] lexemes = new int[offsets[numDepLabels]];
+        double[] values = new double[lexemes.length];
+        double[] maxValues = new double[numDepLabels];
+        int[] next = Arrays.copyOf(offsets, numDepLabels);
+        for (int lexemeId = 0; lexemeId < numLexemes; lexemeId++) { // in id order, so every posting list is sorted
+            SparseVector vector = vectors[a][lexemeId];
+            if (vector == null) continue;
+            double norm = stats[a][lexemeId].norm();
+            for (int entry = 0; entry < vector.size(); entry++) {
+                int f = vector.index(entry);
+                double value = vector.value(entry) / norm;
+                lexemes[next[f]] = lexemeId;
+                values[next[f]++] = value;
+                maxValues[f] = Math.max(maxValues[f], Math.abs(value));
+                hasNegative[a] |= value < 0;
+            }
+        }
+        postingOffsets[a] = offsets;
+        postingLexemes[a] = lexemes;
+        postingValues[a] = values;
+        maxPostingValues[a] = maxValues;
+    }
+
+    private void buildOrders(int a) {
+        List<Integer> lexemes = new ArrayList<>();
+        for (int lexemeId = 0; lexemeId < numLexemes; lexemeId++) {
+            if (vectors[a][lexemeId] != null) lexemes.add(lexemeId);
+        }
+        VectorStats[] s = stats[a];
+        byL1Sum[a] = sorted(lexemes, Comparator.comparingDouble(l -> s[l].positiveSum() - s[l].negativeSum()));
+        bySumOfSquares[a] = sorted(lexemes, Comparator.comparingDouble(l -> s[l].sumOfSquares()));
+        byPositiveSum[a] = sorted(lexemes, Comparator.comparingDouble(l -> s[l].positiveSum()));
+    }
+
+    private static int[] sorted(List<Integer> lexemes, Comparator<Integer> order) {
+        List<Integer> copy = new ArrayList<>(lexemes);
+        copy.sort(order);
+        int[] sorted = new int[copy.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = copy.get(i);
+        }
+        return sorted;
+    }
+
+    public boolean contains(int lexemeId) {
+        return vectors[0][lexemeId] != null;
+    }
+
+    /**
+     * The k lexemes most similar to lexemeId (itself excluded).
+     * @param association 0 for v5 ... 3 for v8
+     * @param measure the measure's position in SimilarityMeasures (0 for method 9 ... 5 for method 17)
+     * @return the neighbors, most similar first (smallest score for the distances), empty if lexemeId has no vectors
+     */
+    public List<Neighbor> topK(int lexemeId, int association, int measure, int k) {
+        if (!contains(lexemeId)) {
+            return Collections.emptyList();
+        }
+        return topK(vectors[association][lexemeId], stats[association][lexemeId], association, measure, k, lexemeId);
+    }
+
+    /**
+     * The k lexemes most similar to a query vector (with its statistics), excluding the lexeme exclude (-1 for none).
+     */
+    public List<Neighbor> topK(SparseVector query, VectorStats queryStats, int association, int measure, int k, int exclude) {
+        if (measure < 0 || measure >= SimilarityMeasures.NUM_MEASURES) {
+            throw new IllegalArgumentException("LexemeIndex.topK: unknown measure " + measure);
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("LexemeIndex.topK: k must be positive, got " + k);
+        }
+        boolean distance = SimilarityMeasures.isDistance(measure);
+        // the worst of the current top k at the head
+        Comparator<Neighbor> better = (n1, n2) -> {
+            int cmp = distance ? Double.compare(n2.score, n1.score) : Double.compare(n1.score, n2.score);
+            return cmp != 0 ? cmp : Integer.compare(n2.lexemeId, n1.lexemeId);
+        };
+        PriorityQueue<Neighbor> top = new PriorityQueue<>(k + 1, better);
+
+        nextStamp();
+        if (exclude >= 0) { // never a candidate, nor a disjoint lexeme
+            marks[exclude] = stamp;
+            accumulators[exclude] = Double.NaN;
+        }
+        if (measure == 2) {
+            cosineCandidates(query, queryStats, association, k, top);
+        } else {
+            exactCandidates(query, queryStats, association, measure, k, top);
+        }
+        disjointLexemes(queryStats, association, measure, k, top);
+
+        List<Neighbor> result = new ArrayList<>(top);
+        result.sort(better.reversed());
+        return result;
+    }
+
+    // offers a score to the top k, false if it doesn't enter
+    private boolean offer(PriorityQueue<Neighbor> top, int k, int lexemeId, double score, boolean distance) {
+        if (top.size() == k) {
+            Neighbor worst = top.peek();
+            boolean betterThanWorst = distance ? score < worst.score : score > worst.score;
+            if (!betterThanWorst) return false;
+            top.poll();
+        }
+        top.add(new Neighbor(lexemeId, score));
+        return true;
+    }
+
+    // every lexeme sharing a feature with the query, scored exactly
+    private void exactCandidates(SparseVector query, VectorStats queryStats, int a, int measure, int k, PriorityQueue<Neighbor> top) {
+        int[] offsets = postingOffsets[a];
+        int[] lexemes = postingLexemes[a];
+        for (int entry = 0; entry < query.size(); entry++) {
+            int f = query.index(entry);
+            for (int p = offsets[f]; p < offsets[f + 1]; p++) {
+                int candidate = lexemes[p];
+                if (marks[candidate] == stamp) continue;
+                marks[candidate] = stamp;
+                SimilarityMeasures.measure(query, queryStats, vectors[a][candidate], stats[a][candidate], scores, 0);
+                offer(top, k, candidate, scores[measure], SimilarityMeasures.isDistance(measure));
+            }
+        }
+    }
+
+    // max-score term-at-a-time cosine, see the class comment
+    private void cosineCandidates(SparseVector query, VectorStats queryStats, int a, int k, PriorityQueue<Neighbor> top) {
+        if (queryStats.norm() == 0) return;
+        int[] offsets = postingOffsets[a];
+        int[] lexemes = postingLexemes[a];
+        double[] values = postingValues[a];
+
+        // the query's features by decreasing bound: |q_f| / |q| * max_x |x_f| / |x|
+        int terms = query.size();
+        Integer[] order = new Integer[terms];
+        double[] bounds = new double[terms];
+        for (int entry = 0; entry < terms; entry++) {
+            order[entry] = entry;
+            bounds[entry] = Math.abs(query.value(entry)) / queryStats.norm() * maxPostingValues[a][query.index(entry)];
+        }
+        Arrays.sort(order, (e1, e2) -> Double.compare(bounds[e2], bounds[e1]));
+        double[] remaining = new double[terms + 1]; // remaining[t]: what the terms t.. can still add (or remove)
+        for (int t = terms - 1; t >= 0; t--) {
+            remaining[t] = remaining[t + 1] + bounds[order[t]];
+        }
+
+        List<Integer> candidates = new ArrayList<>();
+        boolean allowNew = true;
+        for (int t = 0; t < terms; t++) {
+            if (allowNew && candidates.size() >= k) {
+                // a candidate's final score >= accumulator - remaining[t], a new one's <= remaining[t]
+                allowNew = kthLargest(candidates, k) - remaining[t] <= remaining[t];
+            }
+            int entry = order[t];
+            int f = query.index(entry);
+            double q = query.value(entry) / queryStats.norm();
+            for (int p = offsets[f]; p < offsets[f + 1]; p++) {
+                int candidate = lexemes[p];
+                if (marks[candidate] == stamp) { // a candidate, the excluded lexeme or a pruned one (NaN stays NaN)
+                    accumulators[candidate] += q * values[p];
+                } else if (allowNew) {
+                    marks[candidate] = stamp;
+                    accumulators[candidate] = q * values[p];
+                    candidates.add(candidate);
+                } else {
+                    marks[candidate] = stamp; // can't enter the top k, not a disjoint lexeme either
+                    accumulators[candidate] = Double.NaN;
+                }
+            }
+        }
+        for (int candidate : candidates) {
+            if (!Double.isNaN(accumulators[candidate])) {
+                offer(top, k, candidate, accumulators[candidate], false);
+            }
+        }
+    }
+
+    private double kthLargest(List<Integer> candidates, int k) {
+        PriorityQueue<Double> largest = new PriorityQueue<>(k + 1);
+        for (int candidate : candidates) {
+            largest.add(accumulators[candidate]);
+            if (largest.size() > k) largest.poll();
+        }
+        return largest.peek();
+    }
+
+    // the lexemes sharing no feature with the query (not marked), scored from the statistics
+    private void disjointLexemes(VectorStats queryStats, int a, int measure, int k, PriorityQueue<Neighbor> top) {
+        boolean distance = SimilarityMeasures.isDistance(measure);
+        int[] order;
+        boolean monotone; // the score only gets worse along the order: stop at the first one that doesn't enter
+        switch (measure) {
+            case 0:
+                order = byL1Sum[a];
+                monotone = true;
+                break;
+            case 1:
+                order = bySumOfSquares[a];
+                monotone = true;
+                break;
+            case 5:
+                order = byPositiveSum[a];
+                monotone = true;
+                break;
+            case 2:
+                order = byL1Sum[a]; // any order, the score is 0
+                monotone = true;
+                break;
+            default: // min/max, Dice: 0 without negative entries
+                order = byL1Sum[a];
+                monotone = !hasNegative[a];
+        }
+        for (int lexemeId : order) {
+            if (marks[lexemeId] == stamp) continue;
+            SimilarityMeasures.measureDisjoint(queryStats, stats[a][lexemeId], scores, 0);
+            if (!offer(top, k, lexemeId, scores[measure], distance) && monotone) break;
+        }
+    }
+
+    private void nextStamp() {
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+    }
+}
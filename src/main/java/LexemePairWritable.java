@@ -0,0 +1,94 @@
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary key for an ordered pair of lexemes (Dictionary ids), first <= second.
+ * Since the ids follow the lexicographic order of the lexemes, this is the same pair order Step4 always used.
+ */
+public class LexemePairWritable implements WritableComparable<LexemePairWritable> {
+
+    static { // register the raw comparator, used by the shuffle's sort and merge
+        WritableComparator.define(LexemePairWritable.class, new Comparator());
+    }
+
+    private int first;
+    private int second;
+
+    public LexemePairWritable() {
+    }
+
+    public LexemePairWritable(int lexemeId1, int lexemeId2) {
+        set(lexemeId1, lexemeId2);
+    }
+
+    /**
+     * Sets the pair, the ids are ordered so (a, b) and (b, a) are the same key.
+     */
+    public void set(int lexemeId1, int lexemeId2) {
+        first = Math.min(lexemeId1, lexemeId2);
+        second = Math.max(lexemeId1, lexemeId2);
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getSecond() {
+        return second;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(first);
+        out.writeInt(second);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        first = in.readInt();
+        second = in.readInt();
+    }
+
+    @Override
+    public int compareTo(LexemePairWritable other) {
+        int cmp = Integer.compare(first, other.first);
+        return cmp != 0 ? cmp : Integer.compare(second, other.second);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LexemePairWritable)) return false;
+        LexemePairWritable other = (LexemePairWritable) o;
+        return first == other.first && second == other.second;
+    }
+
+    @Override
+    public int hashCode() {
+        return first * 163 + second;
+    }
+
+    @Override
+    public String toString() {
+        return first + " " + second;
+    }
+
+    /**
+     * Compares the serialized keys (two big-endian ints) without deserializing them.
+     * Ids are never negative, so both ints are compared at once as one long.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(LexemePairWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return Long.compare(readLong(b1, s1), readLong(b2, s2));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from a primitive long key (e.g. FeatureIdWritable.pack) to a primitive long.
+ * No per-entry objects and no boxed Long. Used for in-mapper combining.
+ *
+ * Iteration: for (int slot = 0; slot < map.capacity(); slot++) if (map.isUsed(slot)) ...
+ */
+public class LongToLongMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int BYTES_PER_ENTRY = 8 + 8 + 1; // key, value, used
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongToLongMap(int initialCapacity) {
+        allocate(Integer.highestOneBit(Math.max(initialCapacity, 16) * 2 - 1));
+    }
+
+    /**
+     * Adds delta to the value of key, inserting it with value delta if absent.
+     */
+    public void add(long key, long delta) {
+        int slot = mix(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // new key
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = delta;
+        size++;
+
+        if (size > capacity() * LOAD_FACTOR) {
+            rehash(capacity() * 2);
+        }
+    }
+
+    /**
+     * @return the value of key or defaultValue if absent.
+     */
+    public long get(long key, long defaultValue) {
+        int slot = mix(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    public long key(int slot) {
+        return keys[slot];
+    }
+
+    public long value(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Approximate heap bytes of the live entries (at the load factor), the in-mappers' flush trigger.
+     * Not the allocated arrays: clear() keeps them, so a table that grew once would stay over the budget
+     * and flush on every record.
+     */
+    public long memoryBytes() {
+        return (long) (size / (double) LOAD_FACTOR) * BYTES_PER_ENTRY;
+    }
+
+    /**
+     * @return the most entries whose memoryBytes() is within memoryBytes (the inverse of memoryBytes()), at least 1
+     */
+    public static long entriesWithin(long memoryBytes) {
+        return Math.max(1, (long) (memoryBytes * (double) LOAD_FACTOR) / BYTES_PER_ENTRY);
+    }
+
+    /**
+     * Removes all the entries, keeps the allocated arrays (at most about twice the live entries' memoryBytes()).
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys, oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
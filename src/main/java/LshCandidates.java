@@ -0,0 +1,384 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Candidate pairs for scoring all the lexeme pairs (not one of App's steps, runs between Step3 and Step4).
+ * Every lexeme is hashed (LshHasher) into one bucket per band, only lexemes that share a bucket become a candidate pair,
+ * so the shuffle grows with the lexemes and the candidates instead of the square of the vocabulary.
+ * Step4 then scores only the candidates: Step4 --pairs=outputs/lsh_candidates [--map-side-join].
+ * Buckets larger than lsh.max.bucket.size are dropped (a degenerate band, e.g. many vectors with the same few features).
+ * A first job (BucketSizeMapperClass) counts the bucket sizes and writes the oversized buckets' keys, the main job's
+ * mappers leave these bands out (DROPPED), so a pair that shares a dropped bucket is still found by its other bands.
+ * A pair that collides in several kept bands is written once, by the reducer of its first kept colliding band (each
+ * value carries all the lexeme's bucket keys), so there is no deduplication job.
+ * Recall against the exact all-pairs similarities, with and without the bucket size limit: LshRecall.
+ * @pre step3's output
+ * Output: lines of lexemeId1 <tab> lexemeId2, lexemeId1 < lexemeId2 (and the oversized buckets' keys in outputs/lsh_oversized_buckets)
+ * Usage: LshCandidates [--family=simhash|minhash] [--bands=20] [--rows=8] [--association=5|6|7|8] [--max-bucket-size=1000] [--intermediate=... --codec=...] [--output-root=... | --local]
+ */
+public class LshCandidates {
+
+    public static final String FAMILY_KEY = "lsh.family"; // simhash (cosine) or minhash (min/max)
+    public static final String BANDS_KEY = "lsh.bands";
+    public static final String ROWS_KEY = "lsh.rows";
+    public static final String ASSOCIATION_KEY = "lsh.association"; // 5 ... 8, the article's method
+    public static final String SEED_KEY = "lsh.seed";
+    public static final String MAX_BUCKET_SIZE_KEY = "lsh.max.bucket.size";
+    public static final int DEFAULT_BANDS = 20;
+    public static final int DEFAULT_ROWS = 8;
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 1000;
+    public static final String CANDIDATES_DIR = "outputs/lsh_candidates";
+    public static final String OVERSIZED_BUCKETS_DIR = "outputs/lsh_oversized_buckets";
+    public static final String OVERSIZED_BUCKETS = "oversizedbuckets"; //side data name
+    // the key of a dropped band, never a bucket key (its band would be 0xFFFF, LshHasher's bands are below) and never emitted
+    static final long DROPPED = -1L;
+
+    public enum Counter { UNHASHED_LEXEMES, BUCKETS, OVERSIZED_BUCKETS, DROPPED_BANDS, CANDIDATE_PAIRS }
+
+    /**
+     * A lexeme and its bucket keys of all the bands.
+     */
+    public static class SignatureWritable implements Writable {
+
+        private int lexemeId;
+        private long[] keys = new long[0];
+        private int bands;
+
+        public void set(int lexemeId, long[] keys, int bands) {
+            this.lexemeId = lexemeId;
+            this.keys = keys;
+            this.bands = bands;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(lexemeId);
+            out.writeInt(bands);
+            for (int band = 0; band < bands; band++) {
+                out.writeLong(keys[band]);
+            }
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            lexemeId = in.readInt();
+            bands = in.readInt();
+            if (keys.length < bands) {
+                keys = new long[bands];
+            }
+            for (int band = 0; band < bands; band++) {
+                keys[band] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Hashes step3's records, shared by the two jobs' mappers.
+     * Input: step3's SequenceFile (IntWritable, AssociationVectorsWritable), or (LongWritable, Text) lines in IntermediateFormat's text mode
+     */
+    private static class LexemeHasher {
+
+        private final LshHasher hasher;
+        private final int association;
+        private final long[] keys;
+        private final AssociationVectorsWritable parsedVectors = new AssociationVectorsWritable(); //text mode only
+        private int lexemeId;
+
+        private LexemeHasher(Configuration conf) {
+            hasher = hasher(conf);
+            association = TopKQuery.association(conf.getInt(ASSOCIATION_KEY, 5));
+            keys = new long[hasher.bands()];
+        }
+
+        /**
+         * Hashes the record's vector into keys, and its lexeme into lexemeId.
+         * @return false if the vector can't be hashed (counted as UNHASHED_LEXEMES)
+         */
+        private boolean hash(Writable key, Writable value, TaskAttemptContext context) {
+            AssociationVectorsWritable vectors;
+            if (value instanceof AssociationVectorsWritable) {
+                lexemeId = ((IntWritable) key).get();
+                vectors = (AssociationVectorsWritable) value;
+            } else {
+                // line format: lexemeId <tab> v5;v6;v7;v8
+                String[] lineParts = value.toString().split("\t");
+                lexemeId = Integer.parseInt(lineParts[0]);
+                parsedVectors.parse(lineParts[1]);
+                vectors = parsedVectors;
+            }
+
+            if (!hasher.bucketKeys(vectors.get(association), keys)) {
+                context.getCounter(Counter.UNHASHED_LEXEMES).increment(1);
+                return false; // nothing to hash, it can't be similar to anything under this measure
+            }
+            return true;
+        }
+    }
+
+    // the first job: a 1 for every bucket of every lexeme
+    public static class BucketSizeMapperClass extends Mapper<Writable, Writable, LongWritable, IntWritable> {
+
+        private LexemeHasher lexemeHasher;
+        private final LongWritable outKey = new LongWritable();
+        private final IntWritable one = new IntWritable(1);
+
+        @Override
+        protected void setup(Context context) {
+            lexemeHasher = new LexemeHasher(context.getConfiguration());
+        }
+
+        @Override
+        public void map(Writable key, Writable value, Context context) throws IOException, InterruptedException {
+            if (!lexemeHasher.hash(key, value, context)) return;
+            for (long bucket : lexemeHasher.keys) {
+                outKey.set(bucket);
+                context.write(outKey, one);
+            }
+        }
+    }
+
+    //Sums the partial sizes of a bucket
+    public static class BucketSizeCombinerClass extends Reducer<LongWritable, IntWritable, LongWritable, IntWritable> {
+
+        private final IntWritable outSize = new IntWritable();
+
+        @Override
+        public void reduce(LongWritable bucket, Iterable<IntWritable> sizes, Context context) throws IOException, InterruptedException {
+            outSize.set(sum(sizes));
+            context.write(bucket, outSize);
+        }
+    }
+
+    // writes the keys of the buckets larger than lsh.max.bucket.size
+    public static class BucketSizeReducerClass extends Reducer<LongWritable, IntWritable, LongWritable, IntWritable> {
+
+        private int maxBucketSize;
+        private final IntWritable outSize = new IntWritable();
+
+        @Override
+        protected void setup(Context context) {
+            maxBucketSize = context.getConfiguration().getInt(MAX_BUCKET_SIZE_KEY, DEFAULT_MAX_BUCKET_SIZE);
+        }
+
+        @Override
+        public void reduce(LongWritable bucket, Iterable<IntWritable> sizes, Context context) throws IOException, InterruptedException {
+            int size = sum(sizes);
+            if (size <= maxBucketSize) return;
+            context.getCounter(Counter.OVERSIZED_BUCKETS).increment(1);
+            outSize.set(size);
+            context.write(bucket, outSize); //bucket key <tab> size
+        }
+    }
+
+    private static int sum(Iterable<IntWritable> sizes) {
+        int size = 0;
+        for (IntWritable partialSize : sizes) {
+            size += partialSize.get();
+        }
+        return size;
+    }
+
+    // the main job: every lexeme's signature to each of its kept buckets
+    public static class MapperClass extends Mapper<Writable, Writable, LongWritable, SignatureWritable> {
+
+        private LexemeHasher lexemeHasher;
+        private long[] oversizedBuckets; // sorted
+        private final LongWritable outKey = new LongWritable();
+        private final SignatureWritable outSignature = new SignatureWritable();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            lexemeHasher = new LexemeHasher(context.getConfiguration());
+            oversizedBuckets = loadOversizedBuckets(context.getConfiguration());
+        }
+
+        @Override
+        public void map(Writable key, Writable value, Context context) throws IOException, InterruptedException {
+            if (!lexemeHasher.hash(key, value, context)) return;
+            long[] keys = lexemeHasher.keys;
+            for (int band = 0; band < keys.length; band++) {
+                if (Arrays.binarySearch(oversizedBuckets, keys[band]) >= 0) {
+                    keys[band] = DROPPED; // neither a bucket nor a collision of collidedBefore
+                    context.getCounter(Counter.DROPPED_BANDS).increment(1);
+                }
+            }
+            outSignature.set(lexemeHasher.lexemeId, keys, keys.length);
+            for (long bucket : keys) {
+                if (bucket == DROPPED) continue;
+                outKey.set(bucket);
+                context.write(outKey, outSignature);
+            }
+        }
+    }
+
+    public static class ReducerClass extends Reducer<LongWritable, SignatureWritable, IntWritable, IntWritable> {
+
+        private int maxBucketSize;
+        // the bucket's lexemes and their keys, reused for every bucket
+        private int[] lexemeIds = new int[16];
+        private long[][] lexemeKeys = new long[16][];
+        private final IntWritable outFirst = new IntWritable();
+        private final IntWritable outSecond = new IntWritable();
+
+        @Override
+        protected void setup(Context context) {
+            maxBucketSize = context.getConfiguration().getInt(MAX_BUCKET_SIZE_KEY, DEFAULT_MAX_BUCKET_SIZE);
+        }
+
+        @Override
+        public void reduce(LongWritable bucket, Iterable<SignatureWritable> signatures, Context context) throws IOException, InterruptedException {
+            int size = 0;
+            for (SignatureWritable signature : signatures) {
+                if (size == maxBucketSize) {
+                    // unreachable: the first job counted this bucket with the same hasher and input, and the mappers
+                    // dropped it. Dropping it here would lose its pairs in the later bands too (collidedBefore).
+                    throw new IOException("LshCandidates.reduce: bucket " + bucket.get() + " has more than " + maxBucketSize
+                            + " lexemes but is not in " + OVERSIZED_BUCKETS_DIR + ", re-run LshCandidates with the same settings");
+                }
+                if (size == lexemeIds.length) {
+                    lexemeIds = Arrays.copyOf(lexemeIds, 2 * size);
+                    lexemeKeys = Arrays.copyOf(lexemeKeys, 2 * size);
+                }
+                // the framework reuses the value object, so the keys are copied
+                if (lexemeKeys[size] == null || lexemeKeys[size].length < signature.bands) {
+                    lexemeKeys[size] = new long[signature.bands];
+                }
+                System.arraycopy(signature.keys, 0, lexemeKeys[size], 0, signature.bands);
+                lexemeIds[size++] = signature.lexemeId;
+            }
+            context.getCounter(Counter.BUCKETS).increment(1);
+
+            int band = LshHasher.band(bucket.get());
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    if (collidedBefore(lexemeKeys[i], lexemeKeys[j], band)) continue; // written by an earlier kept band's reducer
+                    outFirst.set(Math.min(lexemeIds[i], lexemeIds[j]));
+                    outSecond.set(Math.max(lexemeIds[i], lexemeIds[j]));
+                    context.write(outFirst, outSecond);
+                    context.getCounter(Counter.CANDIDATE_PAIRS).increment(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the two lexemes share the (kept, not DROPPED) bucket of a band before band
+     */
+    static boolean collidedBefore(long[] keys1, long[] keys2, int band) {
+        for (int b = 0; b < band; b++) {
+            if (keys1[b] == keys2[b] && keys1[b] != DROPPED) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the sorted keys of the oversized buckets, the first job's output shipped as OVERSIZED_BUCKETS
+     */
+    static long[] loadOversizedBuckets(Configuration conf) throws IOException {
+        long[][] buckets = {new long[16]}; // grown under the lock, the files are read concurrently
+        int[] numBuckets = {0};
+        SideData.forEachLine(conf, OVERSIZED_BUCKETS, line -> {
+            int tab = line.indexOf('\t');
+            if (tab < 0) return; // Skip malformed lines
+            long bucket = Long.parseLong(line.substring(0, tab));
+            synchronized (buckets) {
+                if (numBuckets[0] == buckets[0].length) {
+                    buckets[0] = Arrays.copyOf(buckets[0], 2 * numBuckets[0]);
+                }
+                buckets[0][numBuckets[0]++] = bucket;
+            }
+        });
+        long[] sorted = Arrays.copyOf(buckets[0], numBuckets[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return the hasher of the job's lsh.* settings
+     */
+    static LshHasher hasher(Configuration conf) {
+        return new LshHasher(conf.get(FAMILY_KEY, LshHasher.SIMHASH), conf.getInt(BANDS_KEY, DEFAULT_BANDS),
+                conf.getInt(ROWS_KEY, DEFAULT_ROWS), conf.getLong(SEED_KEY, 42));
+    }
+
+    /**
+     * Sets the lsh.* settings from --family=, --bands=, --rows=, --association=, --seed= and --max-bucket-size= (others are ignored).
+     */
+    static void parseArgs(Configuration conf, String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--family=")) {
+                conf.set(FAMILY_KEY, arg.substring("--family=".length()));
+            } else if (arg.startsWith("--bands=")) {
+                conf.setInt(BANDS_KEY, Integer.parseInt(arg.substring("--bands=".length())));
+            } else if (arg.startsWith("--rows=")) {
+                conf.setInt(ROWS_KEY, Integer.parseInt(arg.substring("--rows=".length())));
+            } else if (arg.startsWith("--association=")) {
+                conf.setInt(ASSOCIATION_KEY, Integer.parseInt(arg.substring("--association=".length())));
+            } else if (arg.startsWith("--seed=")) {
+                conf.setLong(SEED_KEY, Long.parseLong(arg.substring("--seed=".length())));
+            } else if (arg.startsWith("--max-bucket-size=")) {
+                conf.setInt(MAX_BUCKET_SIZE_KEY, Integer.parseInt(arg.substring("--max-bucket-size=".length())));
+            }
+        }
+        // fail in the driver, not in every task
+        hasher(conf);
+        TopKQuery.association(conf.getInt(ASSOCIATION_KEY, 5));
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("[DEBUG] LshCandidates started!");
+        Configuration conf = new Configuration();
+        IntermediateFormat.parseArgs(conf, args); //how step3's output was written
+        PipelinePaths.parseArgs(conf, args); //--output-root=, --local
+        parseArgs(conf, args);
+
+        // the first job: the keys of the oversized buckets, a few lines (the combiner sums the sizes in the mappers)
+        Job sizesJob = Job.getInstance(conf, "LSH bucket sizes");
+        sizesJob.setJarByClass(LshCandidates.class);
+        sizesJob.setMapperClass(BucketSizeMapperClass.class);
+        sizesJob.setCombinerClass(BucketSizeCombinerClass.class);
+        sizesJob.setReducerClass(BucketSizeReducerClass.class);
+        sizesJob.setOutputKeyClass(LongWritable.class);
+        sizesJob.setOutputValueClass(IntWritable.class);
+        sizesJob.setOutputFormatClass(TextOutputFormat.class); //bucket key <tab> size
+        IntermediateFormat.compressMapOutput(sizesJob);
+        IntermediateFormat.setInput(sizesJob);
+        FileInputFormat.addInputPath(sizesJob, PipelinePaths.path(conf, "outputs/output_step3"));
+        FileOutputFormat.setOutputPath(sizesJob, PipelinePaths.path(conf, OVERSIZED_BUCKETS_DIR));
+        if (!sizesJob.waitForCompletion(true)) {
+            System.exit(1);
+        }
+
+        Job job = Job.getInstance(conf, "LSH candidates");
+        job.setJarByClass(LshCandidates.class);
+        job.setMapperClass(MapperClass.class);
+        job.setReducerClass(ReducerClass.class);
+        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputValueClass(SignatureWritable.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(IntWritable.class);
+        job.setOutputFormatClass(TextOutputFormat.class); //lexemeId1 <tab> lexemeId2, read by Step4 --pairs=
+        IntermediateFormat.compressMapOutput(job);
+        SideData.addToJob(job, OVERSIZED_BUCKETS, PipelinePaths.path(conf, OVERSIZED_BUCKETS_DIR));
+
+        IntermediateFormat.setInput(job); //step3's binary vectors
+        FileInputFormat.addInputPath(job, PipelinePaths.path(conf, "outputs/output_step3"));
+        FileOutputFormat.setOutputPath(job, PipelinePaths.path(conf, CANDIDATES_DIR));
+
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Locality-sensitive hashing of association vectors into band buckets, see LshCandidates.
+ *
+ * A vector gets bands * rows hash values, grouped into bands of rows values. Two vectors are candidates when all
+ * the rows of at least one band are equal, with probability 1 - (1 - p^rows)^bands where p is the probability that
+ * one row is equal:
+ *   simhash: random hyperplanes, a row is the sign of the vector's projection on a random +-1 vector,
+ *            p = 1 - angle / pi (cosine, method 11)
+ *   minhash: consistent weighted sampling (ICWS, Ioffe 2010) of the positive entries,
+ *            p = sum(min) / sum(max) (min/max, method 13, for vectors without negative entries)
+ * The random values are hashed from (seed, row, feature), nothing is stored, every task gets the same hashes.
+ */
+public class LshHasher {
+
+    public static final String SIMHASH = "simhash";
+    public static final String MINHASH = "minhash";
+
+    private static final int BAND_BITS = 16; // a bucket key is band << 48 | 48 bits of the band's hash
+
+    private final boolean simhash;
+    private final int bands;
+    private final int rows;
+    private final long seed;
+    private final long[] rowValues; // scratch
+
+    public LshHasher(String family, int bands, int rows, long seed) {
+        if (!family.equals(SIMHASH) && !family.equals(MINHASH)) {
+            throw new IllegalArgumentException("LshHasher: unknown family " + family + " (simhash or minhash)");
+        }
+        if (bands <= 0 || bands >= 1 << BAND_BITS || rows <= 0) {
+            throw new IllegalArgumentException("LshHasher: bad bands x rows " + bands + "x" + rows);
+        }
+        this.simhash = family.equals(SIMHASH);
+        this.bands = bands;
+        this.rows = rows;
+        this.seed = seed;
+        this.rowValues = new long[bands * rows];
+    }
+
+    public int bands() {
+        return bands;
+    }
+
+    /**
+     * Writes the vector's bucket key of every band into keys[0 .. bands).
+     * @return false if the vector can't be hashed (a zero vector, or no positive entry for minhash)
+     */
+    public boolean bucketKeys(SparseVector vector, long[] keys) {
+        boolean hashed = simhash ? simhash(vector) : minhash(vector);
+        if (!hashed) return false;
+        for (int band = 0; band < bands; band++) {
+            long hash = mix(seed ^ band);
+            for (int row = 0; row < rows; row++) {
+                hash = mix(hash ^ rowValues[band * rows + row]);
+            }
+            keys[band] = (long) band << (64 - BAND_BITS) | hash >>> BAND_BITS;
+        }
+        return true;
+    }
+
+    /**
+     * @return the band of a bucket key
+     */
+    public static int band(long key) {
+        return (int) (key >>> (64 - BAND_BITS));
+    }
+
+    /**
+     * @param similarity the cosine for simhash, min/max for minhash
+     * @return the probability that two vectors with this similarity are candidates
+     */
+    public double collisionProbability(double similarity) {
+        double p = simhash ? 1 - Math.acos(Math.max(-1, Math.min(1, similarity))) / Math.PI : similarity;
+        return 1 - Math.pow(1 - Math.pow(p, rows), bands);
+    }
+
+    private boolean simhash(SparseVector vector) {
+        if (vector.size() == 0) return false;
+        for (int row = 0; row < bands * rows; row++) {
+            double projection = 0;
+            long rowSeed = mix(seed ^ 0x5348L ^ (long) row << 20);
+            for (int entry = 0; entry < vector.size(); entry++) {
+                // the hyperplane's component of the feature: +1 or -1
+                projection += mix(rowSeed ^ vector.index(entry)) < 0 ? -vector.value(entry) : vector.value(entry);
+            }
+            rowValues[row] = projection >= 0 ? 1 : 0;
+        }
+        return true;
+    }
+
+    // ICWS: for every row, the sample (feature, t) with the smallest a among the positive entries
+    private boolean minhash(SparseVector vector) {
+        boolean positive = false;
+        for (int row = 0; row < bands * rows; row++) {
+            long rowSeed = mix(seed ^ 0x4D48L ^ (long) row << 20);
+            double minA = Double.POSITIVE_INFINITY;
+            long sample = 0;
+            for (int entry = 0; entry < vector.size(); entry++) {
+                double weight = vector.value(entry);
+                if (weight <= 0) continue;
+                positive = true;
+                int feature = vector.index(entry);
+                long h = mix(rowSeed ^ feature);
+                double r = gamma2(h);
+                double c = gamma2(mix(h ^ 0x1L));
+                double beta = uniform(mix(h ^ 0x2L));
+                double t = Math.floor(Math.log(weight) / r + beta);
+                double y = Math.exp(r * (t - beta));
+                double a = c / (y * Math.exp(r));
+                if (a < minA) {
+                    minA = a;
+                    sample = (long) feature << 32 ^ (long) t;
+                }
+            }
+            rowValues[row] = sample;
+        }
+        return positive;
+    }
+
+    // Gamma(2, 1) from two uniforms
+    private static double gamma2(long h) {
+        return -Math.log(uniform(h) * uniform(mix(h ^ 0x3L)));
+    }
+
+    // in (0, 1]
+    private static double uniform(long h) {
+        return ((h >>> 11) + 1) * 0x1.0p-53;
+    }
+
+    // SplitMix64's finalizer
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
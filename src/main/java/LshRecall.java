@@ -0,0 +1,167 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local report (not part of the MapReduce pipeline) of LshCandidates' recall against the exact all-pairs similarities.
+ * Reads step3's output, scores every pair with SimilarityMeasures (cosine for simhash, min/max for minhash), and for
+ * each bands x rows setting buckets the lexemes like LshCandidates (same hasher, same seed, same bucket size limit):
+ *   recall           - the fraction of the pairs with similarity >= threshold that are candidates
+ *   without limit    - the same without lsh.max.bucket.size (no bucket dropped), the difference is the recall lost
+ *                      to the oversized buckets
+ *   expected         - the mean collision probability of these pairs, 1 - (1 - p^rows)^bands
+ *   candidates       - the number of candidate pairs and their fraction of all the pairs (Step4's work)
+ *   oversized        - the number of dropped buckets
+ * Usage: LshRecall [--output-root=s3://bucket | --local] [--settings=20x8,10x4,...] [--threshold=0.5] [--family=... --association=... --seed=... --max-bucket-size=...] [--intermediate=...]
+ */
+public class LshRecall {
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        IntermediateFormat.parseArgs(conf, args); //how step3's output was written
+        PipelinePaths.parseArgs(conf, args); //where step3's output and the dictionary are
+        LshCandidates.parseArgs(conf, args);
+        String settings = conf.getInt(LshCandidates.BANDS_KEY, LshCandidates.DEFAULT_BANDS) + "x"
+                + conf.getInt(LshCandidates.ROWS_KEY, LshCandidates.DEFAULT_ROWS);
+        double threshold = 0.5;
+        for (String arg : args) {
+            if (arg.startsWith("--settings=")) {
+                settings = arg.substring("--settings=".length());
+            } else if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            }
+        }
+
+        String family = conf.get(LshCandidates.FAMILY_KEY, LshHasher.SIMHASH);
+        int association = TopKQuery.association(conf.getInt(LshCandidates.ASSOCIATION_KEY, 5));
+        int measure = TopKQuery.measure(family.equals(LshHasher.SIMHASH) ? 11 : 13);
+        int maxBucketSize = conf.getInt(LshCandidates.MAX_BUCKET_SIZE_KEY, LshCandidates.DEFAULT_MAX_BUCKET_SIZE);
+
+        Path dictionaryDir = PipelinePaths.path(conf, Dictionary.DICTIONARY_DIR);
+        Dictionary dictionary = Dictionary.read(dictionaryDir.getFileSystem(conf), dictionaryDir);
+        AssociationVectorStore store = AssociationVectorStore.read(conf,
+                PipelinePaths.path(conf, "outputs/output_step3"), dictionary.numLexemes());
+
+        // the lexemes with vectors, and their vector and statistics of the association
+        int[] lexemeIds = new int[store.numVectors()];
+        SparseVector[] vectors = new SparseVector[lexemeIds.length];
+        VectorStats[] stats = new VectorStats[lexemeIds.length];
+        AssociationVectorsWritable scratch = new AssociationVectorsWritable();
+        int n = 0;
+        for (int lexemeId = 0; lexemeId < store.numLexemes(); lexemeId++) {
+            if (!store.contains(lexemeId)) continue;
+            store.get(lexemeId, scratch);
+            lexemeIds[n] = lexemeId;
+            vectors[n] = new SparseVector();
+            vectors[n].set(scratch.get(association));
+            stats[n] = new VectorStats();
+            stats[n].set(scratch.stats(association));
+            n++;
+        }
+
+        // exact all-pairs: the pairs at or above the threshold, packed as i << 32 | j (indexes into lexemeIds)
+        long allPairs = (long) n * (n - 1) / 2;
+        List<Long> similarPairs = new ArrayList<>();
+        List<Double> similarities = new ArrayList<>();
+        double[] scores = new double[SimilarityMeasures.NUM_MEASURES];
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                SimilarityMeasures.measure(vectors[i], stats[i], vectors[j], stats[j], scores, 0);
+                if (scores[measure] >= threshold) {
+                    similarPairs.add((long) i << 32 | j);
+                    similarities.add(scores[measure]);
+                }
+            }
+        }
+        double exactSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s, association %d, measure %d >= %s: %d lexemes, %d pairs, %d similar (exact all-pairs %.2f sec)%n",
+                family, association + 5, SimilarityMeasures.METHODS[measure], threshold, n, allPairs, similarPairs.size(), exactSeconds);
+        System.out.println("bands x rows\trecall\twithout limit\texpected\tcandidates\tfraction of all pairs\toversized\tsec");
+
+        for (String setting : settings.split(",")) {
+            String[] bandsAndRows = setting.trim().split("x");
+            LshHasher hasher = new LshHasher(family, Integer.parseInt(bandsAndRows[0]), Integer.parseInt(bandsAndRows[1]),
+                    conf.getLong(LshCandidates.SEED_KEY, 42));
+            start = System.nanoTime();
+            long[][] keys = new long[n][hasher.bands()];
+            for (int i = 0; i < n; i++) {
+                if (!hasher.bucketKeys(vectors[i], keys[i])) {
+                    keys[i] = null; // like the mapper, an unhashed lexeme is in no bucket
+                }
+            }
+            int[] oversized = new int[1];
+            long[] candidates = candidates(keys, maxBucketSize, oversized);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long[] unlimited = candidates(keys, Integer.MAX_VALUE, new int[1]);
+
+            int found = 0;
+            int foundUnlimited = 0;
+            double expected = 0;
+            for (int p = 0; p < similarPairs.size(); p++) {
+                if (Arrays.binarySearch(candidates, similarPairs.get(p)) >= 0) found++;
+                if (Arrays.binarySearch(unlimited, similarPairs.get(p)) >= 0) foundUnlimited++;
+                expected += hasher.collisionProbability(similarities.get(p));
+            }
+            int similar = Math.max(1, similarPairs.size());
+            System.out.printf("%s\t%.4f\t%.4f\t%.4f\t%d\t%.4f\t%d\t%.2f%n", setting.trim(), (double) found / similar,
+                    (double) foundUnlimited / similar, expected / similar, candidates.length,
+                    allPairs == 0 ? 0.0 : (double) candidates.length / allPairs, oversized[0], seconds);
+        }
+    }
+
+    /**
+     * LshCandidates' pairs: the buckets larger than maxBucketSize are dropped (the first job) and left out of the
+     * lexemes' keys (the mapper), each pair is written once, in its first kept colliding band (the reducer).
+     * @param keys every lexeme's bucket keys, null for an unhashed lexeme, not modified
+     * @param oversized out: the number of dropped buckets
+     * @return the sorted candidate pairs, packed as i << 32 | j (indexes into keys)
+     */
+    private static long[] candidates(long[][] keys, int maxBucketSize, int[] oversized) {
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            for (long key : keys[i]) {
+                buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+        long[][] keptKeys = new long[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            keptKeys[i] = keys[i] == null ? null : keys[i].clone();
+        }
+        for (Map.Entry<Long, List<Integer>> bucket : buckets.entrySet()) {
+            if (bucket.getValue().size() <= maxBucketSize) continue;
+            oversized[0]++;
+            int band = LshHasher.band(bucket.getKey());
+            for (int i : bucket.getValue()) {
+                keptKeys[i][band] = LshCandidates.DROPPED;
+            }
+        }
+
+        List<Long> candidates = new ArrayList<>();
+        for (Map.Entry<Long, List<Integer>> bucket : buckets.entrySet()) {
+            List<Integer> members = bucket.getValue();
+            if (members.size() > maxBucketSize) continue;
+            int band = LshHasher.band(bucket.getKey());
+            for (int a = 0; a < members.size(); a++) {
+                for (int b = a + 1; b < members.size(); b++) {
+                    int i = Math.min(members.get(a), members.get(b));
+                    int j = Math.max(members.get(a), members.get(b));
+                    if (LshCandidates.collidedBefore(keptKeys[i], keptKeys[j], band)) continue;
+                    candidates.add((long) i << 32 | j);
+                }
+            }
+        }
+        long[] sorted = new long[candidates.size()];
+        for (int c = 0; c < sorted.length; c++) {
+            sorted[c] = candidates.get(c);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
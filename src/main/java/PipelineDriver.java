@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the whole pipeline from one driver process (one EMR step, see App's --single-driver) instead of one EMR step,
+ * one JVM, per step. The steps are a dependency DAG, a step starts as soon as the steps whose output it reads are done,
+ * so independent steps run concurrently:
+ *   Step01, Step02 - independent (word-relatedness.txt, the corpus)
+ *   Step03         - Step01, Step02 (the dictionary)
+ *   Step1, Step2   - Step03 (Step2's reducer only needs the dictionary, with --fuse-step3 also Step1's counts)
+ *   Step3          - Step1 (feature counts and metadata), Step2
+ *   Step4          - Step3 (Step2 with --fuse-step3)
+ *   Step5          - Step4, only with --local (Step5ConvertToARFF reads the local file system)
+ * A step is its own run(args), not a JobControl ControlledJob: a step's job is configured only once its inputs exist
+ * (the side data lists the previous steps' part files), and Step03 and Step1 do work in the driver.
+ * At the end it prints every step's start and wall-clock time, and the critical path, the chain of steps that
+ * bounds the total time (each step's last finished dependency).
+ * Usage: PipelineDriver [--fuse-step3] [--map-side-join] [--intermediate=... --codec=...] [--local --input=... --output-root=...]
+ * (passed on to the steps). With --local the whole pipeline runs on one box, see PipelinePaths.
+ */
+public class PipelineDriver {
+
+    public static final String SINGLE_DRIVER_ARG = "--single-driver"; // App's option
+
+    /**
+     * A step's run(args).
+     */
+    interface StepRunner {
+        boolean run(String[] args) throws Exception;
+    }
+
+    private static class Node {
+        private final String name;
+        private final StepRunner runner;
+        private final List<Node> dependencies = new ArrayList<>();
+        private boolean submitted;
+        private boolean done;
+        private boolean succeeded;
+        private long start; // nanoseconds since the pipeline started
+        private long end;
+
+        private Node(String name, StepRunner runner, Node... dependencies) {
+            this.name = name;
+            this.runner = runner;
+            this.dependencies.addAll(Arrays.asList(dependencies));
+        }
+
+        private boolean ready() {
+            for (Node dependency : dependencies) {
+                if (!dependency.succeeded) return false;
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("[DEBUG] PipelineDriver started!");
+        boolean fuseStep3 = Arrays.asList(args).contains(Step2.FUSE_STEP3_ARG);
+
+        Map<String, Node> steps = new LinkedHashMap<>();
+        Node step01 = add(steps, new Node("Step01", Step01::run));
+        Node step02 = add(steps, new Node("Step02", Step02::run));
+        Node step03 = add(steps, new Node("Step03", Step03::run, step01, step02));
+        Node step1 = add(steps, new Node("Step1", Step1::run, step03));
+        Node step2 = add(steps, fuseStep3 ? new Node("Step2", Step2::run, step03, step1) : new Node("Step2", Step2::run, step03));
+        Node step4;
+        if (fuseStep3) {
+            step4 = add(steps, new Node("Step4", Step4::run, step2)); // step 3 is done by step 2
+        } else {
+            Node step3 = add(steps, new Node("Step3", Step3::run, step1, step2));
+            step4 = add(steps, new Node("Step4", Step4::run, step3));
+        }
+        if (Arrays.asList(args).contains(PipelinePaths.LOCAL_ARG)) {
+            add(steps, new Node("Step5", Step5ConvertToARFF::run, step4)); // the ARFF file, from the local output
+        }
+
+        boolean succeeded = run(steps.values(), args);
+        printTimes(steps.values());
+        System.exit(succeeded ? 0 : 1);
+    }
+
+    private static Node add(Map<String, Node> steps, Node node) {
+        steps.put(node.name, node);
+        return node;
+    }
+
+    /**
+     * Runs the steps, each as soon as its dependencies succeeded. After a failure no new step is started.
+     * @return true if all the steps succeeded
+     */
+    private static boolean run(Iterable<Node> steps, String[] args) throws InterruptedException {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        CompletionService<Node> completions = new ExecutorCompletionService<>(pool);
+        long pipelineStart = System.nanoTime();
+        boolean failed = false;
+        int running = 0;
+        try {
+            while (true) {
+                if (!failed) {
+                    for (Node node : steps) {
+                        if (node.submitted || !node.ready()) continue;
+                        node.submitted = true;
+                        running++;
+                        System.out.println("[INFO] " + node.name + " started");
+                        completions.submit(() -> {
+                            node.start = System.nanoTime() - pipelineStart;
+                            try {
+                                node.succeeded = node.runner.run(args);
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                                node.succeeded = false;
+                            }
+                            node.end = System.nanoTime() - pipelineStart;
+                            return node;
+                        });
+                    }
+                }
+                if (running == 0) break;
+
+                Node node = completions.take().get();
+                running--;
+                node.done = true;
+                System.out.printf("[INFO] %s %s after %.1f sec%n", node.name, node.succeeded ? "succeeded" : "FAILED", seconds(node.end - node.start));
+                failed |= !node.succeeded;
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("PipelineDriver.run: a step's task failed", e.getCause()); // run catches the step's exceptions
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (Node node : steps) {
+            if (!node.done) {
+                System.out.println("[ERROR] " + node.name + " was not run");
+                failed = true;
+            }
+        }
+        return !failed;
+    }
+
+    private static void printTimes(Iterable<Node> steps) {
+        System.out.println("[TIMING] step\tstart (sec)\twall-clock (sec)");
+        long total = 0;
+        double sum = 0;
+        Node last = null;
+        for (Node node : steps) {
+            if (!node.done) continue;
+            System.out.printf("[TIMING] %s\t%.1f\t%.1f%n", node.name, seconds(node.start), seconds(node.end - node.start));
+            sum += seconds(node.end - node.start);
+            if (node.end > total) {
+                total = node.end;
+                last = node;
+            }
+        }
+        if (last == null) return;
+
+        // back from the last step to finish, through each step's last finished dependency
+        List<String> path = new ArrayList<>();
+        double pathSeconds = 0;
+        for (Node node = last; node != null; ) {
+            path.add(0, node.name);
+            pathSeconds += seconds(node.end - node.start);
+            Node critical = null;
+            for (Node dependency : node.dependencies) {
+                if (dependency.done && (critical == null || dependency.end > critical.end)) critical = dependency;
+            }
+            node = critical;
+        }
+        System.out.printf("[TIMING] total %.1f sec, sum of the steps %.1f sec, critical path %s (%.1f sec)%n",
+                seconds(total), sum, String.join(" -> ", path), pathSeconds);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
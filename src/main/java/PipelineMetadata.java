@@ -0,0 +1,138 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The corpus totals and the dimensions of the pipeline, one small record written by Step1's driver
+ * (outputs/pipeline.properties, a properties file) from the job's counters and the Dictionary.
+ *
+ * A driver calls addToJob(job) and the tasks read the values from their Configuration with get(conf):
+ * no side data to open and no counts to scan for the totals. Any step can add its own values with setLong / getLong.
+ */
+public class PipelineMetadata {
+
+    public static final String METADATA_FILE = "outputs/pipeline.properties";
+    public static final int VERSION = 1;
+
+    // record keys
+    public static final String NUM_LEXEMES = "numLexemes";
+    public static final String NUM_DEP_LABELS = "numDepLabels";
+    public static final String NUM_FEATURES = "numFeatures"; //features (lexeme, depLabel) found in the corpus
+    public static final String TOTAL_LEXEME_COUNT = "totalLexemeCount"; //count(L)
+    public static final String TOTAL_FEATURE_COUNT = "totalFeatureCount"; //count(F)
+
+    private static final String VERSION_KEY = "version";
+    private static final String CONF_PREFIX = "pipeline.metadata."; //the record's keys in a job's Configuration
+
+    private final Properties properties = new Properties();
+
+    public PipelineMetadata() {
+        properties.setProperty(VERSION_KEY, String.valueOf(VERSION));
+    }
+
+    public void setLong(String key, long value) {
+        properties.setProperty(key, String.valueOf(value));
+    }
+
+    public long getLong(String key) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IOException("PipelineMetadata: no value for " + key);
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    public int numLexemes() throws IOException {
+        return (int) getLong(NUM_LEXEMES);
+    }
+
+    public int numDepLabels() throws IOException {
+        return (int) getLong(NUM_DEP_LABELS);
+    }
+
+    public long totalLexemeCount() throws IOException {
+        return getLong(TOTAL_LEXEME_COUNT);
+    }
+
+    public long totalFeatureCount() throws IOException {
+        return getLong(TOTAL_FEATURE_COUNT);
+    }
+
+    /**
+     * @return the record's location, outputs/pipeline.properties under the output root (see PipelinePaths)
+     */
+    public static Path path(Configuration conf) {
+        return PipelinePaths.path(conf, METADATA_FILE);
+    }
+
+    public void write(FileSystem fs, Path file) throws IOException {
+        try (FSDataOutputStream out = fs.create(file, true);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            properties.store(writer, "pipeline metadata");
+        }
+    }
+
+    public static PipelineMetadata read(FileSystem fs, Path file) throws IOException {
+        PipelineMetadata metadata = new PipelineMetadata();
+        metadata.properties.clear();
+        try (FSDataInputStream in = fs.open(file);
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            metadata.properties.load(reader);
+        }
+        metadata.checkVersion();
+        return metadata;
+    }
+
+    /**
+     * Reads the record written by Step1 and copies it into the job's Configuration, for get(conf).
+     */
+    public static void addToJob(Job job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        Path file = path(conf);
+        PipelineMetadata metadata = read(file.getFileSystem(conf), file);
+        for (String key : metadata.properties.stringPropertyNames()) {
+            conf.set(CONF_PREFIX + key, metadata.properties.getProperty(key));
+        }
+    }
+
+    /**
+     * The record added to the job by addToJob (call from a task's setup).
+     */
+    public static PipelineMetadata get(Configuration conf) throws IOException {
+        PipelineMetadata metadata = new PipelineMetadata();
+        metadata.properties.clear();
+        for (Map.Entry<String, String> entry : conf) {
+            if (entry.getKey().startsWith(CONF_PREFIX)) {
+                metadata.properties.setProperty(entry.getKey().substring(CONF_PREFIX.length()), entry.getValue());
+            }
+        }
+        if (metadata.properties.isEmpty()) {
+            throw new IOException("PipelineMetadata.get: the metadata was not added to the job");
+        }
+        metadata.checkVersion();
+        return metadata;
+    }
+
+    private void checkVersion() throws IOException {
+        if (getLong(VERSION_KEY) != VERSION) {
+            throw new IOException("PipelineMetadata: version " + getLong(VERSION_KEY) + " found, expected " + VERSION + ". Re-run Step1.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
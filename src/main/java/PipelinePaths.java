@@ -0,0 +1,138 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where the pipeline reads and writes. Every step takes the same options (App and PipelineDriver pass them on):
+ *   --input=path[,path...]  the corpus, default the biarcs files s3a://biarcs/0.txt ... 9.txt
+ *   --output-root=dir       the root of outputs/... (the steps' outputs, the dictionary, the counts file, the metadata), default the S3 bucket
+ *   --sidedata-root=dir     the root of word-relatedness.txt and queries.txt, default the S3 bucket
+ *   --local                 the LocalJobRunner on the local file system, by default on the example corpus
+ *                           (resources/InpuOutputExample/Input, resources/word-relatedness.txt, outputs in target/local)
+ */
+public class PipelinePaths {
+
+    public static final String INPUT_KEY = "pipeline.input";
+    public static final String OUTPUT_ROOT_KEY = "pipeline.output.root";
+    public static final String SIDE_DATA_ROOT_KEY = "pipeline.sidedata.root";
+    public static final String LOCAL_KEY = "pipeline.local";
+
+    public static final String LOCAL_ARG = "--local";
+    private static final String INPUT_ARG = "--input=";
+    private static final String OUTPUT_ROOT_ARG = "--output-root=";
+    private static final String SIDE_DATA_ROOT_ARG = "--sidedata-root=";
+
+    // the local defaults, relative to the working directory (the repository)
+    public static final String LOCAL_INPUT = "resources/InpuOutputExample/Input";
+    public static final String LOCAL_SIDE_DATA_ROOT = "resources";
+    public static final String LOCAL_OUTPUT_ROOT = "target/local";
+
+    private static final int BIARCS_FILES = 10; // Load only files 0.txt to 9.txt from s3a://biarcs/
+
+    /**
+     * Copies the path arguments of a step into its Configuration, with --local also the local job runner's settings.
+     */
+    public static void parseArgs(Configuration conf, String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(INPUT_ARG)) {
+                conf.set(INPUT_KEY, arg.substring(INPUT_ARG.length()));
+            } else if (arg.startsWith(OUTPUT_ROOT_ARG)) {
+                conf.set(OUTPUT_ROOT_KEY, arg.substring(OUTPUT_ROOT_ARG.length()));
+            } else if (arg.startsWith(SIDE_DATA_ROOT_ARG)) {
+                conf.set(SIDE_DATA_ROOT_KEY, arg.substring(SIDE_DATA_ROOT_ARG.length()));
+            } else if (arg.equals(LOCAL_ARG)) {
+                conf.setBoolean(LOCAL_KEY, true);
+            }
+        }
+        if (isLocal(conf)) {
+            conf.set("mapreduce.framework.name", "local");
+            conf.set("fs.defaultFS", "file:///");
+            // absolute, so the paths don't depend on the task's working directory
+            setIfUnset(conf, INPUT_KEY, new File(LOCAL_INPUT).getAbsolutePath());
+            setIfUnset(conf, OUTPUT_ROOT_KEY, new File(LOCAL_OUTPUT_ROOT).getAbsolutePath());
+            setIfUnset(conf, SIDE_DATA_ROOT_KEY, new File(LOCAL_SIDE_DATA_ROOT).getAbsolutePath());
+        }
+        System.out.println("[DEBUG] Input: " + conf.get(INPUT_KEY, "s3a://biarcs/0.txt ... 9.txt") + ", output root: " + outputRoot(conf)
+                + ", side data root: " + sideDataRoot(conf) + (isLocal(conf) ? ", local" : ""));
+    }
+
+    /**
+     * @return the path arguments among args, to pass on to every step
+     */
+    public static List<String> selectArgs(String[] args) {
+        List<String> selected = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(INPUT_ARG) || arg.startsWith(OUTPUT_ROOT_ARG) || arg.startsWith(SIDE_DATA_ROOT_ARG) || arg.equals(LOCAL_ARG)) {
+                selected.add(arg);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return true with --local (the LocalJobRunner, no distributed cache)
+     */
+    public static boolean isLocal(Configuration conf) {
+        return conf.getBoolean(LOCAL_KEY, false);
+    }
+
+    public static String outputRoot(Configuration conf) {
+        return conf.get(OUTPUT_ROOT_KEY, App.s3Path);
+    }
+
+    public static String sideDataRoot(Configuration conf) {
+        return conf.get(SIDE_DATA_ROOT_KEY, App.s3Path);
+    }
+
+    /**
+     * @param relative e.g. outputs/output_step1 or Dictionary.DICTIONARY_DIR
+     * @return the path under the output root
+     */
+    public static Path path(Configuration conf, String relative) {
+        return new Path(String.format("%s/%s", outputRoot(conf), relative));
+    }
+
+    /**
+     * @param file e.g. GoldPairs.GOLD_FILE
+     * @return the path under the side data root
+     */
+    public static Path sideData(Configuration conf, String file) {
+        return new Path(String.format("%s/%s", sideDataRoot(conf), file));
+    }
+
+    /**
+     * @return the FileSystem of the output root, for the drivers' reads and writes
+     */
+    public static FileSystem fileSystem(Configuration conf) throws IOException {
+        return new Path(outputRoot(conf)).getFileSystem(conf);
+    }
+
+    /**
+     * Adds the corpus files (or directories) as the job's input.
+     */
+    public static void addCorpusInput(Job job) throws IOException {
+        String[] inputs = job.getConfiguration().getStrings(INPUT_KEY);
+        if (inputs == null) {
+            inputs = new String[BIARCS_FILES];
+            for (int i = 0; i < BIARCS_FILES; i++) {
+                inputs[i] = "s3a://biarcs/" + i + ".txt";
+            }
+        }
+        for (String input : inputs) {
+            FileInputFormat.addInputPath(job, new Path(input.trim()));
+        }
+    }
+
+    private static void setIfUnset(Configuration conf, String key, String value) {
+        if (conf.get(key) == null) {
+            conf.set(key, value);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Side data (a previous step's output or a small table) shipped to the tasks through the distributed cache.
+ *
+ * The driver calls addToJob(job, name, path) once: path is a file or a step's output directory (all its part-* files).
+ * Every file is published as a cache file and localized on the task's node, so the map tasks don't each open
+ * their own S3 stream. A task calls forEachLine(conf, name, handler), the files are read in parallel.
+ * Readers that need a local File (e.g. to memory-map it) call localFile(conf, name) or localFiles(conf, name) instead.
+ * If a file was not localized (e.g. a local run, see PipelinePaths.isLocal) it is read from its FileSystem path,
+ * so any FileSystem works, including the local one.
+ */
+public class SideData {
+
+    public static final String THREADS_KEY = "sidedata.read.threads";
+    public static final int DEFAULT_THREADS = 8;
+
+    private static final String LINKS_KEY = "sidedata.%s.links";
+    private static final String PATHS_KEY = "sidedata.%s.paths";
+
+    /**
+     * Called for every line of the side data, concurrently from one thread per file.
+     */
+    public interface LineHandler {
+        void handle(String line) throws IOException;
+    }
+
+    /**
+     * Publishes a file, or all the part-* files of a directory, as the side data name.
+     */
+    public static void addToJob(Job job, String name, Path path) throws IOException {
+        Configuration conf = job.getConfiguration();
+        FileSystem fs = path.getFileSystem(conf);
+        List<Path> files = list(fs, path);
+        if (files.isEmpty()) {
+            throw new IOException("SideData.addToJob: no files found in " + path);
+        }
+
+        String[] links = new String[files.size()];
+        String[] paths = new String[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            URI uri = fs.makeQualified(files.get(i)).toUri();
+            links[i] = name + "-" + i;
+            paths[i] = uri.toString();
+            if (PipelinePaths.isLocal(conf)) {
+                continue; // the local runner's tasks read the files in place (they share the working directory)
+            }
+            try {
+                // the fragment is the name of the symlink in the task's working directory
+                job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, links[i]));
+            } catch (URISyntaxException e) {
+                throw new IOException("SideData.addToJob: bad path " + uri, e);
+            }
+        }
+        conf.setStrings(String.format(LINKS_KEY, name), links);
+        conf.setStrings(String.format(PATHS_KEY, name), paths);
+    }
+
+    /**
+     * Reads all the files of the side data name in parallel.
+     * The handler must be thread-safe (lines of different files are handled concurrently).
+     */
+    public static void forEachLine(Configuration conf, String name, LineHandler handler) throws IOException {
+        String[] links = conf.getStrings(String.format(LINKS_KEY, name));
+        String[] paths = conf.getStrings(String.format(PATHS_KEY, name));
+        if (links == null || paths == null) {
+            throw new IOException("SideData.forEachLine: " + name + " was not added to the job");
+        }
+
+        int threads = Math.max(1, Math.min(links.length, conf.getInt(THREADS_KEY, DEFAULT_THREADS)));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < links.length; i++) {
+                String link = links[i];
+                String path = paths[i];
+                futures.add(pool.submit(() -> {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(conf, link, path), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            handler.handle(line);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("SideData.forEachLine: failed to read " + name, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("SideData.forEachLine: interrupted while reading " + name, e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A local copy of the single file of the side data name, for readers that need a File (e.g. to memory-map it).
+     * The localized copy if there is one, otherwise the file is copied to a local temporary file.
+     */
+    public static File localFile(Configuration conf, String name) throws IOException {
+        String[] links = conf.getStrings(String.format(LINKS_KEY, name));
+        String[] paths = conf.getStrings(String.format(PATHS_KEY, name));
+        if (links == null || paths == null || links.length != 1) {
+            throw new IOException("SideData.localFile: " + name + " was not added to the job as a single file");
+        }
+
+        return localCopy(conf, links[0], paths[0]);
+    }
+
+    /**
+     * Local copies of all the files of the side data name (see localFile).
+     */
+    public static List<File> localFiles(Configuration conf, String name) throws IOException {
+        String[] links = conf.getStrings(String.format(LINKS_KEY, name));
+        String[] paths = conf.getStrings(String.format(PATHS_KEY, name));
+        if (links == null || paths == null) {
+            throw new IOException("SideData.localFiles: " + name + " was not added to the job");
+        }
+
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < links.length; i++) {
+            files.add(localCopy(conf, links[i], paths[i]));
+        }
+        return files;
+    }
+
+    // the localized copy if there is one, otherwise a copy in a local temporary file
+    private static File localCopy(Configuration conf, String link, String path) throws IOException {
+        File localized = new File(link);
+        if (localized.exists()) {
+            return localized;
+        }
+        File copy = File.createTempFile(link, null);
+        copy.deleteOnExit();
+        Path file = new Path(path);
+        file.getFileSystem(conf).copyToLocalFile(file, new Path(copy.getAbsolutePath()));
+        return copy;
+    }
+
+    // the localized copy if there is one, otherwise the original file
+    private static InputStream open(Configuration conf, String link, String path) throws IOException {
+        File localized = new File(link);
+        if (localized.exists()) {
+            return new FileInputStream(localized);
+        }
+        Path file = new Path(path);
+        return file.getFileSystem(conf).open(file);
+    }
+
+    private static List<Path> list(FileSystem fs, Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!fs.getFileStatus(path).isDirectory()) {
+            files.add(path);
+            return files;
+        }
+        FileStatus[] parts = fs.globStatus(new Path(path, "part-*"));
+        if (parts != null) {
+            Arrays.sort(parts);
+            for (FileStatus part : parts) {
+                files.add(part.getPath());
+            }
+        }
+        return files;
+    }
+}
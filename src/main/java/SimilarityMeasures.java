@@ -0,0 +1,266 @@
+/**
+ * The six measures of vector similarity of Step4 (methods 9, 10, 11, 13, 15, 17 of the article) in one pass.
+ *
+ * Step4.ReducerClass.dist_by_method_* are the reference: one pass each, Math.pow and a midpoint array.
+ * measure() computes the same six values in a single loop over the two vectors, no allocation, no Math.pow,
+ * and Math.log only where both entries are non-zero (with one zero entry the JS term is x * ln 2 exactly).
+ * The sums are accumulated in the same order as the reference methods, the results match them within
+ * TOLERANCE (checked by SimilarityMeasuresTest).
+ *
+ * measure(SparseVector, SparseVector, ...) is the same kernel on the non-zero entries only: a merge walk of the
+ * two sorted index lists, an entry that is in one vector only is handled in closed form (the other one is 0),
+ * so a pair costs O(non-zeros of both) instead of O(numDepLabels). The zero entries the dense loop skips add
+ * exactly 0 to every sum, so the sparse and dense results are the same.
+ *
+ * measure(vector1, stats1, vector2, stats2, ...) also takes the vectors' VectorStats (computed once by Step3):
+ * only the entries in both vectors (the cross terms) are accumulated, the walk just skips the others and their
+ * part of every sum comes from the statistics (e.g. the unmatched L1 mass is the vector's L1 sum minus its matched part).
+ * The sums are not added in the same order, the results match the reference within STATS_TOLERANCE.
+ */
+public class SimilarityMeasures {
+
+    public static final int NUM_MEASURES = 6; // 9, 10, 11, 13, 15, 17
+    public static final int[] METHODS = {9, 10, 11, 13, 15, 17}; // the article's method of each measure
+    public static final double TOLERANCE = 1e-12; // relative, against the reference methods
+    public static final double STATS_TOLERANCE = 1e-9; // relative, the kernel with VectorStats
+
+    private static final double LN2 = Math.log(2);
+
+    /**
+     * Writes the six measures of (vector1, vector2) into out[offset .. offset + 6), in the order of Step4's 24 vector.
+     */
+    public static void measure(double[] vector1, double[] vector2, double[] out, int offset) {
+        double l1 = 0.0;            // method 9
+        double squaredDistance = 0.0; // method 10
+        double sumOfProducts = 0.0; // method 11
+        double sumOfSquaredVector1 = 0.0;
+        double sumOfSquaredVector2 = 0.0;
+        double sumOfMin = 0.0;      // methods 13 and 15
+        double sumOfMax = 0.0;
+        double sumOfCoordinate = 0.0;
+        double kl1 = 0.0;           // method 17
+        double kl2 = 0.0;
+
+        for (int i = 0; i < vector1.length; i++) {
+            double a = vector1[i];
+            double b = vector2[i];
+            double difference = a - b;
+            l1 += Math.abs(difference);
+            squaredDistance += difference * difference;
+            sumOfProducts += a * b;
+            sumOfSquaredVector1 += a * a;
+            sumOfSquaredVector2 += b * b;
+            sumOfMin += Math.min(a, b);
+            sumOfMax += Math.max(a, b);
+            sumOfCoordinate += a + b;
+
+            double midpoint = (a + b) / 2.0;
+            if (midpoint > 0) {
+                if (a > 0) {
+                    kl1 += b == 0 ? a * LN2 : a * Math.log(a / midpoint);
+                }
+                if (b > 0) {
+                    kl2 += a == 0 ? b * LN2 : b * Math.log(b / midpoint);
+                }
+            }
+        }
+
+        finish(l1, squaredDistance, sumOfProducts, sumOfSquaredVector1, sumOfSquaredVector2,
+                sumOfMin, sumOfMax, sumOfCoordinate, kl1, kl2, out, offset);
+    }
+
+    /**
+     * measure() on sparse vectors, see the class comment.
+     */
+    public static void measure(SparseVector vector1, SparseVector vector2, double[] out, int offset) {
+        double l1 = 0.0;
+        double squaredDistance = 0.0;
+        double sumOfProducts = 0.0;
+        double sumOfSquaredVector1 = 0.0;
+        double sumOfSquaredVector2 = 0.0;
+        double sumOfMin = 0.0;
+        double sumOfMax = 0.0;
+        double sumOfCoordinate = 0.0;
+        double kl1 = 0.0;
+        double kl2 = 0.0;
+
+        int size1 = vector1.size();
+        int size2 = vector2.size();
+        int entry1 = 0;
+        int entry2 = 0;
+        while (entry1 < size1 || entry2 < size2) {
+            int index1 = entry1 < size1 ? vector1.index(entry1) : Integer.MAX_VALUE;
+            int index2 = entry2 < size2 ? vector2.index(entry2) : Integer.MAX_VALUE;
+
+            if (index1 < index2) { // only in vector1, b = 0
+                double a = vector1.value(entry1++);
+                double squared = a * a;
+                l1 += Math.abs(a);
+                squaredDistance += squared;
+                sumOfSquaredVector1 += squared;
+                if (a < 0) {
+                    sumOfMin += a;
+                } else {
+                    sumOfMax += a;
+                    kl1 += a * LN2;
+                }
+                sumOfCoordinate += a;
+            } else if (index2 < index1) { // only in vector2, a = 0
+                double b = vector2.value(entry2++);
+                double squared = b * b;
+                l1 += Math.abs(b);
+                squaredDistance += squared;
+                sumOfSquaredVector2 += squared;
+                if (b < 0) {
+                    sumOfMin += b;
+                } else {
+                    sumOfMax += b;
+                    kl2 += b * LN2;
+                }
+                sumOfCoordinate += b;
+            } else { // in both, the dense loop's body
+                double a = vector1.value(entry1++);
+                double b = vector2.value(entry2++);
+                double difference = a - b;
+                l1 += Math.abs(difference);
+                squaredDistance += difference * difference;
+                sumOfProducts += a * b;
+                sumOfSquaredVector1 += a * a;
+                sumOfSquaredVector2 += b * b;
+                sumOfMin += Math.min(a, b);
+                sumOfMax += Math.max(a, b);
+                sumOfCoordinate += a + b;
+
+                double midpoint = (a + b) / 2.0;
+                if (midpoint > 0) {
+                    if (a > 0) {
+                        kl1 += a * Math.log(a / midpoint);
+                    }
+                    if (b > 0) {
+                        kl2 += b * Math.log(b / midpoint);
+                    }
+                }
+            }
+        }
+
+        finish(l1, squaredDistance, sumOfProducts, sumOfSquaredVector1, sumOfSquaredVector2,
+                sumOfMin, sumOfMax, sumOfCoordinate, kl1, kl2, out, offset);
+    }
+
+    /**
+     * measure() on sparse vectors with their statistics, see the class comment.
+     */
+    public static void measure(SparseVector vector1, VectorStats stats1, SparseVector vector2, VectorStats stats2,
+                               double[] out, int offset) {
+        // the cross terms, over the entries in both vectors
+        int matched = 0;
+        double matchedAbsoluteDifference = 0.0;
+        double matchedSquaredDifference = 0.0;
+        double sumOfProducts = 0.0;
+        double matchedSquares1 = 0.0;
+        double matchedSquares2 = 0.0;
+        double matchedPositive1 = 0.0;
+        double matchedNegative1 = 0.0;
+        double matchedPositive2 = 0.0;
+        double matchedNegative2 = 0.0;
+        double matchedMin = 0.0;
+        double matchedMax = 0.0;
+        double matchedKl1 = 0.0;
+        double matchedKl2 = 0.0;
+
+        int size1 = vector1.size();
+        int size2 = vector2.size();
+        int entry1 = 0;
+        int entry2 = 0;
+        while (entry1 < size1 && entry2 < size2) {
+            int index1 = vector1.index(entry1);
+            int index2 = vector2.index(entry2);
+            if (index1 < index2) {
+                entry1++;
+            } else if (index2 < index1) {
+                entry2++;
+            } else {
+                double a = vector1.value(entry1++);
+                double b = vector2.value(entry2++);
+                matched++;
+                double difference = a - b;
+                matchedAbsoluteDifference += Math.abs(difference);
+                matchedSquaredDifference += difference * difference;
+                sumOfProducts += a * b;
+                matchedSquares1 += a * a;
+                matchedSquares2 += b * b;
+                if (a > 0) matchedPositive1 += a; else matchedNegative1 += a;
+                if (b > 0) matchedPositive2 += b; else matchedNegative2 += b;
+                matchedMin += Math.min(a, b);
+                matchedMax += Math.max(a, b);
+
+                double midpoint = (a + b) / 2.0;
+                if (midpoint > 0) {
+                    if (a > 0) {
+                        matchedKl1 += a * Math.log(a / midpoint);
+                    }
+                    if (b > 0) {
+                        matchedKl2 += b * Math.log(b / midpoint);
+                    }
+                }
+            }
+        }
+
+        // the entries in one vector only, from the statistics (exactly 0 if all of the vector's entries matched)
+        boolean all1 = matched == stats1.nonZeros();
+        boolean all2 = matched == stats2.nonZeros();
+        double positive1 = all1 ? 0.0 : stats1.positiveSum() - matchedPositive1;
+        double negative1 = all1 ? 0.0 : stats1.negativeSum() - matchedNegative1;
+        double squares1 = all1 ? 0.0 : stats1.sumOfSquares() - matchedSquares1;
+        double positive2 = all2 ? 0.0 : stats2.positiveSum() - matchedPositive2;
+        double negative2 = all2 ? 0.0 : stats2.negativeSum() - matchedNegative2;
+        double squares2 = all2 ? 0.0 : stats2.sumOfSquares() - matchedSquares2;
+
+        double l1 = matchedAbsoluteDifference + (positive1 - negative1) + (positive2 - negative2);
+        double squaredDistance = matchedSquaredDifference + squares1 + squares2;
+        double sumOfMin = matchedMin + negative1 + negative2;
+        double sumOfMax = matchedMax + positive1 + positive2;
+        double sumOfCoordinate = (stats1.positiveSum() + stats1.negativeSum()) + (stats2.positiveSum() + stats2.negativeSum());
+        double kl1 = matchedKl1 + positive1 * LN2;
+        double kl2 = matchedKl2 + positive2 * LN2;
+
+        out[offset] = l1;
+        out[offset + 1] = Math.sqrt(squaredDistance);
+        out[offset + 2] = (sumOfProducts == 0 || stats1.sumOfSquares() == 0 || stats2.sumOfSquares() == 0) ? 0
+                : sumOfProducts / (stats1.norm() * stats2.norm());
+        out[offset + 3] = (sumOfMin != 0 && sumOfMax != 0) ? (sumOfMin / sumOfMax) : 0;
+        out[offset + 4] = (sumOfMin != 0 && sumOfCoordinate != 0) ? (2 * sumOfMin / sumOfCoordinate) : 0;
+        out[offset + 5] = kl1 + kl2;
+    }
+
+    /**
+     * The six measures of two vectors with no non-zero entry in common, from their statistics only.
+     */
+    public static void measureDisjoint(VectorStats stats1, VectorStats stats2, double[] out, int offset) {
+        finish((stats1.positiveSum() - stats1.negativeSum()) + (stats2.positiveSum() - stats2.negativeSum()),
+                stats1.sumOfSquares() + stats2.sumOfSquares(), 0.0, stats1.sumOfSquares(), stats2.sumOfSquares(),
+                stats1.negativeSum() + stats2.negativeSum(), stats1.positiveSum() + stats2.positiveSum(),
+                (stats1.positiveSum() + stats1.negativeSum()) + (stats2.positiveSum() + stats2.negativeSum()),
+                stats1.positiveSum() * LN2, stats2.positiveSum() * LN2, out, offset);
+    }
+
+    /**
+     * @param measure the measure's position in the six (0 for method 9 ... 5 for method 17)
+     * @return true for the distances (9, 10, 17: smaller is more similar), false for 11, 13, 15 (larger is more similar)
+     */
+    public static boolean isDistance(int measure) {
+        return measure == 0 || measure == 1 || measure == 5;
+    }
+
+    private static void finish(double l1, double squaredDistance, double sumOfProducts, double sumOfSquaredVector1,
+                               double sumOfSquaredVector2, double sumOfMin, double sumOfMax, double sumOfCoordinate,
+                               double kl1, double kl2, double[] out, int offset) {
+        out[offset] = l1;
+        out[offset + 1] = Math.sqrt(squaredDistance);
+        out[offset + 2] = (sumOfProducts == 0 || sumOfSquaredVector1 == 0 || sumOfSquaredVector2 == 0) ? 0
+                : sumOfProducts / (Math.sqrt(sumOfSquaredVector1) * Math.sqrt(sumOfSquaredVector2));
+        out[offset + 3] = (sumOfMin != 0 && sumOfMax != 0) ? (sumOfMin / sumOfMax) : 0;
+        out[offset + 4] = (sumOfMin != 0 && sumOfCoordinate != 0) ? (2 * sumOfMin / sumOfCoordinate) : 0;
+        out[offset + 5] = kl1 + kl2; // Jensen-Shannon, as the sum of the two KL divergences
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.Random;
+
+/**
+ * Local micro benchmark (not part of the MapReduce pipeline) of the fused SimilarityMeasures kernels, dense, sparse
+ * (merge walk) and sparse with VectorStats, against Step4's reference methods (dist_by_method_*): the time per pair on
+ * random sparse vectors with counts, positive and negative weights (like v5 ... v8).
+ * The results are checked against the reference methods by SimilarityMeasuresTest.
+ * Usage: SimilarityMeasuresBenchmark [dimension] [pairs] [rounds]
+ */
+public class SimilarityMeasuresBenchmark {
+
+    public static void main(String[] args) {
+        int dimension = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Random random = new Random(42);
+        double[][] vectors1 = new double[pairs][], vectors2 = new double[pairs][];
+        SparseVector[] sparse1 = new SparseVector[pairs], sparse2 = new SparseVector[pairs];
+        VectorStats[] stats1 = new VectorStats[pairs], stats2 = new VectorStats[pairs];
+        for (int p = 0; p < pairs; p++) {
+            int kind = p % 4; // 0 counts, 1 positive weights, 2 weights of both signs, 3 one vector all zero
+            vectors1[p] = randomVector(random, dimension, kind);
+            vectors2[p] = kind == 3 ? new double[dimension] : randomVector(random, dimension, kind);
+            if (p % 8 == 1) { // some pairs share most of their entries
+                for (int i = 0; i < dimension; i += 2) vectors2[p][i] = vectors1[p][i];
+            }
+            sparse1[p] = sparse(vectors1[p]);
+            sparse2[p] = sparse(vectors2[p]);
+            stats1[p] = new VectorStats();
+            stats1[p].compute(sparse1[p]);
+            stats2[p] = new VectorStats();
+            stats2[p].compute(sparse2[p]);
+        }
+
+        double[] fused = new double[SimilarityMeasures.NUM_MEASURES];
+        double sink = 0;
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            sink += timeReference(vectors1, vectors2, 1) + timeFused(vectors1, vectors2, fused, 1) + timeSparse(sparse1, sparse2, fused, 1)
+                    + timeStats(sparse1, stats1, sparse2, stats2, fused, 1);
+        }
+        long start = System.nanoTime();
+        sink += timeReference(vectors1, vectors2, rounds);
+        double referenceSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        sink += timeFused(vectors1, vectors2, fused, rounds);
+        double fusedSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        sink += timeSparse(sparse1, sparse2, fused, rounds);
+        double sparseSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        sink += timeStats(sparse1, stats1, sparse2, stats2, fused, rounds);
+        double statsSeconds = (System.nanoTime() - start) / 1e9;
+        long measured = (long) pairs * rounds;
+        System.out.printf("dimension %d: reference %.0f pairs/sec, fused %.0f pairs/sec (%.1fx), sparse %.0f pairs/sec (%.1fx), with stats %.0f pairs/sec (%.1fx) [%s]%n",
+                dimension, measured / referenceSeconds, measured / fusedSeconds, referenceSeconds / fusedSeconds,
+                measured / sparseSeconds, referenceSeconds / sparseSeconds,
+                measured / statsSeconds, referenceSeconds / statsSeconds, sink != 0 ? "ok" : "-");
+    }
+
+    private static double[] reference(double[] vector1, double[] vector2) {
+        return new double[]{
+                Step4.ReducerClass.dist_by_method_9(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_10(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_11(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_13(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_15(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_17(vector1, vector2)};
+    }
+
+    private static double timeReference(double[][] vectors1, double[][] vectors2, int rounds) {
+        double sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int p = 0; p < vectors1.length; p++) {
+                sum += reference(vectors1[p], vectors2[p])[5];
+            }
+        }
+        return sum;
+    }
+
+    private static double timeFused(double[][] vectors1, double[][] vectors2, double[] out, int rounds) {
+        double sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int p = 0; p < vectors1.length; p++) {
+                SimilarityMeasures.measure(vectors1[p], vectors2[p], out, 0);
+                sum += out[5];
+            }
+        }
+        return sum;
+    }
+
+    private static double timeSparse(SparseVector[] vectors1, SparseVector[] vectors2, double[] out, int rounds) {
+        double sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int p = 0; p < vectors1.length; p++) {
+                SimilarityMeasures.measure(vectors1[p], vectors2[p], out, 0);
+                sum += out[5];
+            }
+        }
+        return sum;
+    }
+
+    private static double timeStats(SparseVector[] vectors1, VectorStats[] stats1, SparseVector[] vectors2, VectorStats[] stats2,
+                                    double[] out, int rounds) {
+        double sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int p = 0; p < vectors1.length; p++) {
+                SimilarityMeasures.measure(vectors1[p], stats1[p], vectors2[p], stats2[p], out, 0);
+                sum += out[5];
+            }
+        }
+        return sum;
+    }
+
+    private static SparseVector sparse(double[] dense) {
+        SparseVector vector = new SparseVector();
+        for (int i = 0; i < dense.length; i++) {
+            vector.add(i, dense[i]);
+        }
+        return vector;
+    }
+
+    // about 5% non-zero entries
+    private static double[] randomVector(Random random, int dimension, int kind) {
+        double[] vector = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            if (random.nextInt(20) != 0) continue;
+            switch (kind) {
+                case 0:
+                    vector[i] = 1 + random.nextInt(1000);
+                    break;
+                case 2:
+                    vector[i] = random.nextGaussian() * 3;
+                    break;
+                default:
+                    vector[i] = random.nextDouble() * 1e-3;
+            }
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,160 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A lexeme's vector as its non-zero entries only, sorted by index (the depLabelId of the feature).
+ * The vectors are mostly zeros, so this is the format steps 2-4 exchange instead of the dense one.
+ *
+ * Text format: space separated "index:value" entries, e.g. "3:12 17:1 40:7" (an empty string is the zero vector).
+ * Binary format (Writable): VInt size, then per entry the VInt gap from the previous index and the double value.
+ * Reusable: clear(), parse(...) or readFields(...) and fill it again, the arrays only grow.
+ */
+public class SparseVector implements Writable {
+
+    private int[] indices;
+    private double[] values;
+    private int size;
+
+    public SparseVector() {
+        this(16);
+    }
+
+    public SparseVector(int initialCapacity) {
+        indices = new int[Math.max(initialCapacity, 1)];
+        values = new double[indices.length];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Appends an entry, indices must be added in increasing order. A zero value is not stored.
+     */
+    public void add(int index, double value) {
+        if (value == 0) return;
+        if (size > 0 && index <= indices[size - 1]) {
+            throw new IllegalArgumentException("SparseVector.add: index " + index + " is not after " + indices[size - 1]);
+        }
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        indices[size] = index;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Replaces the content with a copy of other's entries (e.g. to keep a value the framework reuses).
+     */
+    public void set(SparseVector other) {
+        if (indices.length < other.size) {
+            indices = new int[other.size];
+            values = new double[other.size];
+        }
+        System.arraycopy(other.indices, 0, indices, 0, other.size);
+        System.arraycopy(other.values, 0, values, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     * @return the number of non-zero entries
+     */
+    public int size() {
+        return size;
+    }
+
+    public int index(int entry) {
+        return indices[entry];
+    }
+
+    public double value(int entry) {
+        return values[entry];
+    }
+
+    /**
+     * Writes the vector into a dense array (all the other entries are set to 0).
+     */
+    public void scatter(double[] dense) {
+        Arrays.fill(dense, 0);
+        for (int entry = 0; entry < size; entry++) {
+            dense[indices[entry]] = values[entry];
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        int previous = 0;
+        for (int entry = 0; entry < size; entry++) {
+            WritableUtils.writeVInt(out, indices[entry] - previous);
+            out.writeDouble(values[entry]);
+            previous = indices[entry];
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int newSize = WritableUtils.readVInt(in);
+        if (newSize > indices.length) {
+            indices = new int[newSize];
+            values = new double[newSize];
+        }
+        int index = 0;
+        for (int entry = 0; entry < newSize; entry++) {
+            index += WritableUtils.readVInt(in);
+            indices[entry] = index;
+            values[entry] = in.readDouble();
+        }
+        size = newSize;
+    }
+
+    /**
+     * Replaces the content with the entries of the text format.
+     */
+    public void parse(String text) {
+        clear();
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end = text.indexOf(' ', start);
+            if (end < 0) end = length;
+            if (end > start) { // Skip repeated spaces
+                int colon = text.indexOf(':', start);
+                if (colon < 0 || colon > end) {
+                    throw new IllegalArgumentException("SparseVector.parse: bad entry " + text.substring(start, end));
+                }
+                add(Integer.parseInt(text.substring(start, colon)), Double.parseDouble(text.substring(colon + 1, end)));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Appends the text format to sb, integral values (e.g. counts) are written without a fraction.
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        for (int entry = 0; entry < size; entry++) {
+            if (entry > 0) sb.append(' ');
+            sb.append(indices[entry]).append(':');
+            double value = values[entry];
+            if (value == (long) value) {
+                sb.append((long) value);
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+}
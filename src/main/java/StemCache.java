@@ -0,0 +1,156 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe memo of the Porter stemmer keyed by the raw UTF-8 bytes of the token.
+ * One instance is shared by all the threads of a mapper JVM (see getInstance).
+ *
+ * The cache is set-associative: a token hashes to a bucket of WAYS slots, on a full bucket the
+ * least frequently used slot is evicted (frequency-aware, the frequencies are halved on eviction so
+ * old hot words can age out). A lookup that hits does not allocate.
+ *
+ * Hits, misses and evictions are reported as Hadoop counters (group StemCache$Counter) via reportCounters.
+ */
+public class StemCache {
+
+    public enum Counter { HITS, MISSES, EVICTIONS }
+
+    public static final String CAPACITY_KEY = "stem.cache.capacity";
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int WAYS = 4;
+    private static final int LOCK_STRIPES = 64;
+
+    private static StemCache instance;
+
+    private final int bucketMask;
+    private final byte[][] keys;
+    private final String[] values;
+    private final int[] hashes;
+    private final int[] frequencies;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long reportedHits, reportedMisses, reportedEvictions;
+
+    private static final ThreadLocal<Stemmer> stemmers = ThreadLocal.withInitial(Stemmer::new);
+
+    public StemCache(int capacity) {
+        int buckets = Integer.highestOneBit(Math.max(capacity / WAYS, 1));
+        bucketMask = buckets - 1;
+        int slots = buckets * WAYS;
+        keys = new byte[slots][];
+        values = new String[slots];
+        hashes = new int[slots];
+        frequencies = new int[slots];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the JVM wide cache, sized by stem.cache.capacity on first use.
+     */
+    public static synchronized StemCache getInstance(Configuration conf) {
+        if (instance == null) {
+            instance = new StemCache(conf.getInt(CAPACITY_KEY, DEFAULT_CAPACITY));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the stem of the UTF-8 token bytes[start, start+length).
+     */
+    public String stem(byte[] bytes, int start, int length) throws CharacterCodingException {
+        int hash = WritableComparator.hashBytes(bytes, start, length);
+        int index = mix(hash) & bucketMask;
+        int bucket = index * WAYS;
+        Object lock = locks[index & (LOCK_STRIPES - 1)]; //striped by the bucket index, bucket is a multiple of WAYS
+
+        synchronized (lock) {
+            for (int slot = bucket; slot < bucket + WAYS; slot++) {
+                byte[] key = keys[slot];
+                if (key != null && hashes[slot] == hash
+                        && WritableComparator.compareBytes(key, 0, key.length, bytes, start, length) == 0) {
+                    if (frequencies[slot] < Integer.MAX_VALUE) frequencies[slot]++;
+                    hits.increment();
+                    return values[slot];
+                }
+            }
+        }
+
+        // miss: stem outside the lock
+        misses.increment();
+        String lexeme = stem(Text.decode(bytes, start, length));
+        byte[] key = new byte[length];
+        System.arraycopy(bytes, start, key, 0, length);
+
+        synchronized (lock) {
+            int victim = bucket;
+            for (int slot = bucket; slot < bucket + WAYS; slot++) {
+                if (keys[slot] != null && hashes[slot] == hash
+                        && WritableComparator.compareBytes(keys[slot], 0, keys[slot].length, key, 0, length) == 0) {
+                    return values[slot]; //another thread stemmed it meanwhile
+                }
+            }
+            for (int slot = bucket; slot < bucket + WAYS; slot++) {
+                if (keys[slot] == null) {
+                    victim = slot;
+                    break;
+                }
+                if (frequencies[slot] < frequencies[victim]) victim = slot;
+            }
+            if (keys[victim] != null) {
+                evictions.increment();
+                // age the survivors so the bucket adapts to the current shard
+                for (int slot = bucket; slot < bucket + WAYS; slot++) {
+                    frequencies[slot] >>>= 1;
+                }
+            }
+            keys[victim] = key;
+            values[victim] = lexeme;
+            hashes[victim] = hash;
+            frequencies[victim] = 1;
+        }
+        return lexeme;
+    }
+
+    /**
+     * Stems a word without the cache, uses a Stemmer per thread.
+     */
+    public static String stem(String word) {
+        Stemmer stemmer = stemmers.get();
+        stemmer.add(word.toCharArray(), word.length());
+        stemmer.stem();
+        return new String(stemmer.getResultBuffer(), 0, stemmer.getResultLength());
+    }
+
+    /**
+     * Adds the hits/misses/evictions since the last report to the task's counters.
+     * Should be called from the mapper's cleanup.
+     */
+    public synchronized void reportCounters(TaskAttemptContext context) {
+        long h = hits.sum(), m = misses.sum(), e = evictions.sum();
+        context.getCounter(Counter.HITS).increment(h - reportedHits);
+        context.getCounter(Counter.MISSES).increment(m - reportedMisses);
+        context.getCounter(Counter.EVICTIONS).increment(e - reportedEvictions);
+        reportedHits = h;
+        reportedMisses = m;
+        reportedEvictions = e;
+    }
+
+    // spreads the low quality hashBytes bits over the bucket index
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -1,5 +1,4 @@
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -66,9 +65,15 @@ public class Step01 {
      */
 
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // configures and runs the step, also called by PipelineDriver
+    public static boolean run(String[] args) throws Exception {
         System.out.println("[DEBUG] STEP 01 started!");
         System.out.println(args.length > 0 ? args[0] : "no args");
         Configuration conf = new Configuration();
+        PipelinePaths.parseArgs(conf, args); //--input=, --output-root=, --sidedata-root=, --local
 
         /*
         // Set S3 as the default filesystem
@@ -99,11 +104,11 @@ public class Step01 {
         job.setOutputFormatClass(TextOutputFormat.class);
 
 
-        FileInputFormat.addInputPath(job, new Path(String.format("%s/word-relatedness.txt" , App.s3Path)));
+        FileInputFormat.addInputPath(job, PipelinePaths.sideData(conf, GoldPairs.GOLD_FILE));
 
-        FileOutputFormat.setOutputPath(job, new Path(String.format("%s/outputs/output_step01", App.s3Path)));
+        FileOutputFormat.setOutputPath(job, PipelinePaths.path(conf, "outputs/output_step01"));
 
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        return job.waitForCompletion(true);
     }
 }
 
@@ -1,12 +1,10 @@
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
@@ -25,26 +23,22 @@ public class Step02 {
     //public class Mapper<KEYIN,VALUEIN,KEYOUT,VALUEOUT>
     public static class MapperClass extends Mapper<LongWritable, Text, Text, Text> {
 
+        private final BiarcsParser parser = new BiarcsParser();
+        private final Text depLabel = new Text(); //reused for every emit
+        private final Text empty = new Text();
+
         @Override
         public void map(LongWritable line_Id, Text line, Context context) throws IOException, InterruptedException {
 
-            String[] fields = line.toString().split("\t"); // Tab-separated
-
-            String syntacticNgram = fields[1].trim();
+            if (!parser.reset(line)) {
+                throw new IOException("Error processing line: " + line);
+            }
 
             // Process the entire syntactic N-Gram
-            String[] tokens = syntacticNgram.split(" ");
-            for (String token : tokens) {
-                try {
-                    // Token Format: cease/VB/ccomp/0
-                    String[] tokenParts = token.split("/");
-
-                    String depLabel = tokenParts[2].trim();
-                    context.write(new Text(depLabel), new Text());
-
-                } catch (Exception e) {
-                    throw new IOException("Error processing token: " + token, e);
-                }
+            // Token Format: cease/VB/ccomp/0
+            while (parser.nextToken()) {
+                parser.copyDepLabel(depLabel);
+                context.write(depLabel, empty);
             }
         }
     }
@@ -69,9 +63,15 @@ public class Step02 {
      */
 
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // configures and runs the step, also called by PipelineDriver
+    public static boolean run(String[] args) throws Exception {
         System.out.println("[DEBUG] STEP 02 started!");
         System.out.println(args.length > 0 ? args[0] : "no args");
         Configuration conf = new Configuration();
+        PipelinePaths.parseArgs(conf, args); //--input=, --output-root=, --sidedata-root=, --local
 
         /*
         // Set S3 as the default filesystem
@@ -102,18 +102,12 @@ public class Step02 {
         job.setOutputFormatClass(TextOutputFormat.class);
 
 
-        //For demo testing
-        //FileInputFormat.addInputPath(job, new Path(String.format("%s/ass3inputtemp.txt" , App.s3Path))); //TODO: un-comment for demo
-
-        //Actual NGRAM
-        // Load only files 0.txt to 9.txt from s3a://biarcs/ for testing
-        for (int i = 0; i <= 9; i++) {
-            FileInputFormat.addInputPath(job, new Path("s3a://biarcs/" + i + ".txt"));
-        }
+        // the corpus: s3a://biarcs/0.txt ... 9.txt, or --input= (e.g. the demo corpus ass3inputtemp.txt), or --local
+        PipelinePaths.addCorpusInput(job);
 
-        FileOutputFormat.setOutputPath(job, new Path(String.format("%s/outputs/output_step02", App.s3Path)));
+        FileOutputFormat.setOutputPath(job, PipelinePaths.path(conf, "outputs/output_step02"));
 
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        return job.waitForCompletion(true);
     }
 }
 
@@ -0,0 +1,71 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ *  Assigns dense int ids to the lexemes and the dependency labels (see Dictionary).
+ *  Not a MapReduce job, the sets are small and are read once here instead of in every task.
+ * @pre step01 and step02 outputs found in the S3 bucket
+ * @Input step01's output (lexemeSet), step02's output (depLabelSet)
+ * @Output: outputs/dictionary/lexemes and outputs/dictionary/deplabels, one name per line, line number = id
+ */
+public class Step03 {
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // configures and runs the step, also called by PipelineDriver
+    public static boolean run(String[] args) throws Exception {
+        System.out.println("[DEBUG] STEP 03 started!");
+        System.out.println(args.length > 0 ? args[0] : "no args");
+        Configuration conf = new Configuration();
+        PipelinePaths.parseArgs(conf, args); //--input=, --output-root=, --sidedata-root=, --local
+        FileSystem fs = PipelinePaths.fileSystem(conf);
+
+        // the lexemes are stemmed like retrieveLexemeSet always did, so they match the corpus lookups
+        Set<String> lexemes = new TreeSet<>();
+        for (String word : readFirstColumn(fs, PipelinePaths.path(conf, "outputs/output_step01"))) {
+            lexemes.add(Utils.stemAndReturn(word));
+        }
+        Set<String> depLabels = readFirstColumn(fs, PipelinePaths.path(conf, "outputs/output_step02"));
+
+        if (lexemes.isEmpty() || depLabels.isEmpty()) {
+            throw new IOException("Step03: lexemeSet or depLabelSet is empty.");
+        }
+
+        Dictionary dictionary = new Dictionary(lexemes, depLabels);
+        dictionary.write(fs, PipelinePaths.path(conf, Dictionary.DICTIONARY_DIR));
+
+        System.out.println("[DEBUG] Dictionary: " + dictionary.numLexemes() + " lexemes, " + dictionary.numDepLabels() + " dependency labels");
+        return true;
+    }
+
+    /**
+     * Reads the keys (first tab separated column) of all the part files of a step's output.
+     */
+    private static Set<String> readFirstColumn(FileSystem fs, Path outputDir) throws IOException {
+        Set<String> keys = new TreeSet<>();
+        for (FileStatus part : fs.globStatus(new Path(outputDir, "part-*"))) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(part.getPath()), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String key = line.split("\t")[0].trim();
+                    if (!key.isEmpty()) { // Skip empty lines
+                        keys.add(key);
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+}
@@ -1,86 +1,164 @@
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  *  calculates count(F=f) and count(L=l) using dictionaries and emit as JSON
- * @pre word-relatedness.txt found in the S3 bucket
+ * @pre the Dictionary (step03's output) found in the S3 bucket
  * @Input input from NGRAM as lines
- * @Output: (Text dict_name, Text dict.JSON)
+ * @Output: (FeatureIdWritable lexeme/feature, LongWritable count), a SequenceFile (see IntermediateFormat), as text: lexemeId[-depLabelId] count
  */
 public class Step1 {
 
     //public class Mapper<KEYIN,VALUEIN,KEYOUT,VALUEOUT>
-    public static class MapperClass extends Mapper<LongWritable, Text, Text, LongWritable> {
+    public static class MapperClass extends Mapper<LongWritable, Text, FeatureIdWritable, LongWritable> {
 
-        private Set<String> lexemeSet = new HashSet<>();
+        // In-mapper combining: sum the counts in memory and emit each key once per flush
+        public static final String IN_MAPPER_COMBINE_KEY = "step1.inmapper.combine";
+        public static final String IN_MAPPER_MEMORY_KEY = "step1.inmapper.memory.bytes";
+        public static final long DEFAULT_IN_MAPPER_MEMORY = 64L * 1024 * 1024;
+
+        public enum Counter { IN_MAPPER_FLUSHES }
+
+        private Dictionary dictionary;
+        private final BiarcsParser parser = new BiarcsParser();
+        private StemCache stemCache;
+        private final FeatureIdWritable outKey = new FeatureIdWritable(); //reused for every emit
+        private final LongWritable totalCount = new LongWritable();
+
+        private LongToLongMap counts; //key: FeatureIdWritable.pack, null when in-mapper combining is off
+        private long memoryBudget;
 
         @Override
         protected void setup(Context context) throws IOException {
-            lexemeSet = Utils.retrieveLexemeSet();
-            System.out.println(lexemeSet);
+            dictionary = Dictionary.load(context.getConfiguration());
+            stemCache = StemCache.getInstance(context.getConfiguration());
+
+            if (context.getConfiguration().getBoolean(IN_MAPPER_COMBINE_KEY, true)) {
+                counts = new LongToLongMap(1 << 12);
+                memoryBudget = context.getConfiguration().getLong(IN_MAPPER_MEMORY_KEY, DEFAULT_IN_MAPPER_MEMORY);
+            }
         }
 
         @Override
         public void map(LongWritable line_Id, Text line, Context context) throws IOException, InterruptedException {
-            String line_str = line.toString();
-            System.out.println("[DEBUG] Line" + line_str);
-            String[] parts = line_str.split("\t");
-
             //cease<tab>cease/VB/ccomp/0 for/IN/prep/1 an/DT/det/4 boys/NN/pobj/2<tab>56<tab>1834,2
+            if (!parser.reset(line)) return; //malformed line
+
+            long count = parser.getTotalCount();
 
-            /*
-            if (parts.length < 3) {
-                System.err.println("Malformed line: " + line_str);
-                return;
+            // Example of a syntactic-ngram:     cease/VB/ccomp/0  for/IN/prep/1  some/DT/det/4  time/NN/pobj/2 (word/POS/dependency/index)
+            while (parser.nextToken()) {
+                String lexeme = stemCache.stem(parser.getBytes(), parser.getWordStart(), parser.getWordLength());
+                int lexemeId = dictionary.lexemeId(lexeme);
+                if (lexemeId == Dictionary.NOT_FOUND) continue;
+                int depLabelId = dictionary.depLabelId(parser.getBytes(), parser.getDepLabelStart(), parser.getDepLabelLength());
+                if (depLabelId == Dictionary.NOT_FOUND) continue;
+
+                emit(lexemeId, FeatureIdWritable.NO_DEP_LABEL, count, context);
+                // feature = (lexeme, depLabel)
+                emit(lexemeId, depLabelId, count, context);
             }
 
-             */
+            if (counts != null && counts.memoryBytes() > memoryBudget) {
+                flush(context);
+            }
+        }
 
-            String syntacticNgram = parts[1];
-            LongWritable totalCount = new LongWritable(Long.parseLong(parts[2]));
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (counts != null) {
+                flush(context);
+            }
+            stemCache.reportCounters(context);
+        }
 
+        private void emit(int lexemeId, int depLabelId, long count, Context context) throws IOException, InterruptedException {
+            if (counts == null) {
+                outKey.set(lexemeId, depLabelId);
+                totalCount.set(count);
+                context.write(outKey, totalCount);
+            } else {
+                counts.add(FeatureIdWritable.pack(lexemeId, depLabelId), count);
+            }
+        }
 
-            // Example of a syntactic-ngram:     cease/VB/ccomp/0  for/IN/prep/1  some/DT/det/4  time/NN/pobj/2 (word/POS/dependency/index)
-            String[] tokens = syntacticNgram.split(" ");  // Split by whitespace
-
-            for (String token : tokens) {
-                String[] tokenParts = token.split("/");
-                //if (tokenParts.length < 3) continue; //TODO: un-comment?
-                String lexeme = Utils.stemAndReturn(tokenParts[0]);
-                if (!lexemeSet.contains(lexeme)) continue;
-                context.write(new Text(lexeme), totalCount);
-                String depLabel = tokenParts[2];
-                String feature = lexeme + "-" + depLabel;
-                context.write(new Text(feature), totalCount);
+        private void flush(Context context) throws IOException, InterruptedException {
+            for (int slot = 0; slot < counts.capacity(); slot++) {
+                if (!counts.isUsed(slot)) continue;
+                long key = counts.key(slot);
+                outKey.set(FeatureIdWritable.unpackLexemeId(key), FeatureIdWritable.unpackDepLabelId(key));
+                totalCount.set(counts.value(slot));
+                context.write(outKey, totalCount);
             }
+            counts.clear();
+            context.getCounter(Counter.IN_MAPPER_FLUSHES).increment(1);
         }
     }
 
 
+    //Sums the counts of a key, no counters (a combiner's partial sums would be counted again by the reducer)
+    public static class CombinerClass extends Reducer<FeatureIdWritable,LongWritable,FeatureIdWritable,LongWritable> {
+
+        private final LongWritable total = new LongWritable();
+
+        @Override
+        public void reduce(FeatureIdWritable key, Iterable<LongWritable> counts, Context context) throws IOException,  InterruptedException {
+            long sum = 0;
+            for (LongWritable count : counts) {
+                sum += count.get();
+            }
+            total.set(sum);
+            context.write(key, total);
+        }
+    }
+
     //Class Reducer<KEYIN,VALUEIN,KEYOUT,VALUEOUT>
-    public static class ReducerClass extends Reducer<Text,LongWritable,Text,LongWritable> {
+    public static class ReducerClass extends Reducer<FeatureIdWritable,LongWritable,FeatureIdWritable,LongWritable> {
+
+        // the corpus totals, read by the driver into the PipelineMetadata record
+        public enum Counter { LEXEMES, FEATURES, TOTAL_LEXEME_COUNT, TOTAL_FEATURE_COUNT }
+
+        private final LongWritable total = new LongWritable();
+        private long lexemes = 0; //reported to the counters in cleanup
+        private long features = 0;
+        private long totalLexemeCount = 0;
+        private long totalFeatureCount = 0;
 
         @Override
-        public void reduce(Text key, Iterable<LongWritable> counts, Context context) throws IOException,  InterruptedException {
+        public void reduce(FeatureIdWritable key, Iterable<LongWritable> counts, Context context) throws IOException,  InterruptedException {
             //key is lexeme or feature
             long sum = 0;
             for (LongWritable count : counts) {
                 sum += count.get();
             }
-            context.write(key, new LongWritable(sum));
+            if (key.isLexeme()) {
+                lexemes++;
+                totalLexemeCount += sum;
+            } else {
+                features++;
+                totalFeatureCount += sum;
+            }
+            total.set(sum);
+            context.write(key, total);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            context.getCounter(Counter.LEXEMES).increment(lexemes);
+            context.getCounter(Counter.FEATURES).increment(features);
+            context.getCounter(Counter.TOTAL_LEXEME_COUNT).increment(totalLexemeCount);
+            context.getCounter(Counter.TOTAL_FEATURE_COUNT).increment(totalFeatureCount);
         }
     }
 
@@ -94,9 +172,16 @@ public class Step1 {
      */
 
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // configures and runs the step, also called by PipelineDriver
+    public static boolean run(String[] args) throws Exception {
         System.out.println("[DEBUG] STEP 1 started!");
         System.out.println(args.length > 0 ? args[0] : "no args");
         Configuration conf = new Configuration();
+        IntermediateFormat.parseArgs(conf, args); //--intermediate= and --codec=, the same for all the steps
+        PipelinePaths.parseArgs(conf, args); //--input=, --output-root=, --sidedata-root=, --local
 
         /*
         // Set S3 as the default filesystem
@@ -117,29 +202,47 @@ public class Step1 {
         job.setJarByClass(Step1.class);
         job.setMapperClass(MapperClass.class);
         //job.setPartitionerClass(PartitionerClass.class);
-        job.setCombinerClass(ReducerClass.class);
+        job.setCombinerClass(CombinerClass.class); //still useful across in-mapper flushes
         job.setReducerClass(ReducerClass.class);
 
-        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputKeyClass(FeatureIdWritable.class);
+        job.setSortComparatorClass(FeatureIdWritable.Comparator.class); //raw bytes comparator
         job.setMapOutputValueClass(LongWritable.class);
-        job.setOutputKeyClass(Text.class);
+        job.setOutputKeyClass(FeatureIdWritable.class);
         job.setOutputValueClass(LongWritable.class);
 
-        job.setOutputFormatClass(TextOutputFormat.class);
+        IntermediateFormat.setOutput(job); //read only by this driver, see FeatureCounts.build
+        IntermediateFormat.compressMapOutput(job);
         job.setInputFormatClass(TextInputFormat.class);
+        Dictionary.addToJob(job);
 
-        //For demo testing
-        //FileInputFormat.addInputPath(job, new Path(String.format("%s/ass3inputtemp.txt" , App.s3Path))); //TODO: un-comment for demo
+        // the corpus: s3a://biarcs/0.txt ... 9.txt, or --input= (e.g. the demo corpus ass3inputtemp.txt), or --local
+        PipelinePaths.addCorpusInput(job);
 
-        //Actual NGRAM input
-        // Load only files 0.txt to 9.txt from s3a://biarcs/ for testing
-        for (int i = 0; i <= 9; i++) {
-            FileInputFormat.addInputPath(job, new Path("s3a://biarcs/" + i + ".txt"));
-        }
 
+        Path step1Output = PipelinePaths.path(conf, "outputs/output_step1");
+        FileOutputFormat.setOutputPath(job, step1Output);
 
-        FileOutputFormat.setOutputPath(job, new Path(String.format("%s/outputs/output_step1", App.s3Path)));
+        if (!job.waitForCompletion(true)) {
+            return false;
+        }
 
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        // the binary counts file step2 and step3 memory-map, built once here instead of parsed in every task
+        FileSystem fs = PipelinePaths.fileSystem(conf);
+        Dictionary dictionary = Dictionary.read(fs, PipelinePaths.path(conf, Dictionary.DICTIONARY_DIR));
+        FeatureCounts.build(conf, fs, step1Output, PipelinePaths.path(conf, FeatureCounts.FEATURE_COUNTS_FILE),
+                dictionary.numLexemes(), dictionary.numDepLabels());
+
+        // the totals and dimensions, read by the next steps in O(1) (see PipelineMetadata)
+        Counters counters = job.getCounters();
+        PipelineMetadata metadata = new PipelineMetadata();
+        metadata.setLong(PipelineMetadata.NUM_LEXEMES, dictionary.numLexemes());
+        metadata.setLong(PipelineMetadata.NUM_DEP_LABELS, dictionary.numDepLabels());
+        metadata.setLong(PipelineMetadata.NUM_FEATURES, counters.findCounter(ReducerClass.Counter.FEATURES).getValue());
+        metadata.setLong(PipelineMetadata.TOTAL_LEXEME_COUNT, counters.findCounter(ReducerClass.Counter.TOTAL_LEXEME_COUNT).getValue());
+        metadata.setLong(PipelineMetadata.TOTAL_FEATURE_COUNT, counters.findCounter(ReducerClass.Counter.TOTAL_FEATURE_COUNT).getValue());
+        metadata.write(fs, PipelineMetadata.path(conf));
+        System.out.println("[DEBUG] Pipeline metadata: " + metadata);
+        return true;
     }
 }
@@ -1,73 +1,118 @@
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 import java.io.IOException;
-import java.util.*;
+import java.util.Arrays;
 
 
 /**
  *  Calculates (lexeme, count(F=f, L=l)) using dictionary and emi
  * @Input Google NGRAM
- * Output: (Text lexeme, Text spaces_separated_counts(F=f, L=l))
+ * Output: (IntWritable lexemeId, SparseVector counts(F=f, L=l)), index i is the feature (lexeme, depLabelId i)
+ *         a SequenceFile, or Text in IntermediateFormat's text mode (SparseVector text format)
+ *         with --fuse-step3: step3's output (see FusedReducerClass)
  */
 public class Step2 {
-    public static class MapperClass extends Mapper<LongWritable, Text, Text, Text> {
 
+    public static final String FUSE_STEP3_ARG = "--fuse-step3"; //step argument, see FusedReducerClass
 
-        private Set<String> lexemeSet = new HashSet<>(); // Stores lexemes from Step 1
-        private Set<String> depLableSet = new HashSet<>(); // Stores all seen features
+    public static class MapperClass extends Mapper<LongWritable, Text, FeatureIdWritable, LongWritable> {
+
+        // In-mapper combining (as in Step1): sum the counts in memory and emit each feature once per flush
+        public static final String IN_MAPPER_COMBINE_KEY = "step2.inmapper.combine";
+        public static final String IN_MAPPER_MEMORY_KEY = "step2.inmapper.memory.bytes";
+        public static final long DEFAULT_IN_MAPPER_MEMORY = 64L * 1024 * 1024;
+
+        // RECORDS_BEFORE_COMBINING: a record per matching token (the map output without combining),
+        // RECORDS_AFTER_COMBINING: the records written. The combiner's own reduction is in the framework's
+        // COMBINE_INPUT_RECORDS / COMBINE_OUTPUT_RECORDS counters.
+        public enum Counter { IN_MAPPER_FLUSHES, RECORDS_BEFORE_COMBINING, RECORDS_AFTER_COMBINING }
+
+        private Dictionary dictionary; // lexemes and dependency labels ids
+        private final BiarcsParser parser = new BiarcsParser();
+        private StemCache stemCache;
+        private final FeatureIdWritable outFeature = new FeatureIdWritable(); //reused for every emit
+        private final LongWritable outCount = new LongWritable();
+
+        private LongToLongMap counts; //key: FeatureIdWritable.pack, null when in-mapper combining is off
+        private long memoryBudget;
+        private long recordsBefore = 0; //reported to the counters in cleanup
+        private long recordsAfter = 0;
 
         @Override
         protected void setup(Context context) throws IOException {
 
-            lexemeSet = Utils.retrieveLexemeSet();
-            depLableSet = Utils.retrieveDepLabelSet();
+            dictionary = Dictionary.load(context.getConfiguration());
+            stemCache = StemCache.getInstance(context.getConfiguration());
+
+            if (context.getConfiguration().getBoolean(IN_MAPPER_COMBINE_KEY, true)) {
+                counts = new LongToLongMap(1 << 12);
+                memoryBudget = context.getConfiguration().getLong(IN_MAPPER_MEMORY_KEY, DEFAULT_IN_MAPPER_MEMORY);
+            }
         }
 
         @Override
         public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
-            String line = value.toString().trim();
-            String[] fields = line.split("\t");
+            if (!parser.reset(value)) return; //malformed line
 
-            String syntacticNgram = fields[1].trim();
-            String totalCount = fields[2].trim();
+            long totalCount = parser.getTotalCount();
 
-            String[] tokens = syntacticNgram.split(" ");
+            while (parser.nextToken()) {
+                String lexeme = stemCache.stem(parser.getBytes(), parser.getWordStart(), parser.getWordLength());
+                int lexemeId = dictionary.lexemeId(lexeme);
+                if (lexemeId == Dictionary.NOT_FOUND) continue;
 
-            for (String token : tokens) {
-                String[] tokenParts = token.split("/");
-                String word = tokenParts[0].trim();
-                String depLabel = tokenParts[2].trim();
-                String lexeme = Utils.stemAndReturn(word);
+                int depLabelId = dictionary.depLabelId(parser.getBytes(), parser.getDepLabelStart(), parser.getDepLabelLength());
+                if (depLabelId == Dictionary.NOT_FOUND) continue;
 
-                if (!lexemeSet.contains(lexeme)) continue;
-                if (!depLableSet.contains(depLabel)) continue;
+                // key: the feature (lexemeId, depLabelId), value: count
+                recordsBefore++;
+                if (counts == null) {
+                    write(lexemeId, depLabelId, totalCount, context);
+                } else {
+                    counts.add(FeatureIdWritable.pack(lexemeId, depLabelId), totalCount);
+                }
+            }
 
-                String feature = lexeme + "-" + depLabel;
-                context.write(new Text(lexeme), new Text(feature + " " + totalCount));
+            if (counts != null && counts.memoryBytes() > memoryBudget) { //the live entries, see LongToLongMap.memoryBytes
+                flush(context);
             }
         }
 
         @Override
         protected void cleanup(Context context) throws IOException, InterruptedException {
-            Map<String, Long> lexemeFeatureToCount = Utils.retrievelexemeFeatureToCountMap();
-            for (String lexeme : lexemeSet) {
-                for (String depLabel : depLableSet) {
-                    String feature = lexeme + "-" + depLabel;
-                    // Write all possible feature combinations, using 0 for features not in corpus
-                    context.write(new Text(lexeme), new Text(feature + " " + 
-                        (lexemeFeatureToCount.containsKey(feature) ? lexemeFeatureToCount.get(feature) : "0"))); //Should always write 0?
-                }
+            if (counts != null) {
+                flush(context);
+            }
+            context.getCounter(Counter.RECORDS_BEFORE_COMBINING).increment(recordsBefore);
+            context.getCounter(Counter.RECORDS_AFTER_COMBINING).increment(recordsAfter);
+            stemCache.reportCounters(context);
+            // no padding of every lexeme x depLabel, the vectors are sparse (a missing feature is 0)
+        }
+
+        private void write(int lexemeId, int depLabelId, long count, Context context) throws IOException, InterruptedException {
+            outFeature.set(lexemeId, depLabelId);
+            outCount.set(count);
+            context.write(outFeature, outCount);
+            recordsAfter++;
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            for (int slot = 0; slot < counts.capacity(); slot++) {
+                if (!counts.isUsed(slot)) continue;
+                long key = counts.key(slot);
+                write(FeatureIdWritable.unpackLexemeId(key), FeatureIdWritable.unpackDepLabelId(key), counts.value(slot), context);
             }
+            counts.clear();
+            context.getCounter(Counter.IN_MAPPER_FLUSHES).increment(1);
         }
     } //end of mapper class
 
@@ -80,45 +125,119 @@ public class Step2 {
         }
     }
      */
-    //Mapper Output format: (Text lexeme, Text feature<space><count>)
-    public static class ReducerClass extends Reducer<Text, Text, Text, Text> {
+    //Sums the counts of a feature (the combiner groups by the full key, not by the grouping comparator)
+    public static class CombinerClass extends Reducer<FeatureIdWritable, LongWritable, FeatureIdWritable, LongWritable> {
+
+        private final LongWritable total = new LongWritable();
 
         @Override
-        //fc: feature <space> count
-        public void reduce(Text lexeme, Iterable<Text> fcCouples, Context context) throws IOException, InterruptedException {
-            // Step 1: build a dictionary, (TreeMap to keep features sorted)
-            Map<String, Long> featureCounts = new TreeMap<>();
+        public void reduce(FeatureIdWritable feature, Iterable<LongWritable> counts, Context context) throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable count : counts) {
+                sum += count.get();
+            }
+            total.set(sum);
+            context.write(feature, total);
+        }
+    }
 
-            StringBuilder featureVector = new StringBuilder(); //can't be inside the for loop!
+    //Mapper Output format: (FeatureIdWritable (lexemeId, depLabelId), LongWritable count)
+    //Secondary sort: grouped by lexemeId (FeatureIdWritable.LexemeComparator), the values arrive sorted by depLabelId.
+    public static class ReducerClass extends Reducer<FeatureIdWritable, LongWritable, IntWritable, Writable> {
 
-            for (Text fc : fcCouples) { // fc as feature counts
+        private boolean text; // IntermediateFormat's text (debug) mode
+        private final SparseVector featureVector = new SparseVector(); // at most numDepLabels entries, reused for every lexeme
+        private final StringBuilder featureVectorText = new StringBuilder();
+        private final IntWritable outLexeme = new IntWritable();
+        private final Text outVector = new Text();
 
-                String[] fcParts = fc.toString().split(" "); // value format: feature count
-                // if (fcParts.length < 2) continue; // Ignore malformed keys //TODO: un-comment?
-                String feature = fcParts[0];
-                String count = fcParts[1];
+        @Override
+        protected void setup(Context context) {
+            text = IntermediateFormat.isText(context.getConfiguration());
+        }
 
-                //Aggregate the Counts (L=l, F=f)
-                featureCounts.put(feature, (featureCounts.getOrDefault(feature, 0L) + Long.parseLong(count)));
+        @Override
+        public void reduce(FeatureIdWritable feature, Iterable<LongWritable> counts, Context context) throws IOException, InterruptedException {
+            int lexemeId = feature.getLexemeId();
+            sumFeatureCounts(feature, counts, featureVector);
+            outLexeme.set(lexemeId);
+
+            // Only the non-zero counts, in depLabel id order (the lexicographic order of the dependency labels).
+            if (!text) {
+                // Emit: (IntWritable lexemeId, SparseVector counts(F=f, L=l)) binary
+                context.write(outLexeme, featureVector);
+                return;
             }
-            System.out.println("COUNT CHECK: " + featureCounts);
-            System.err.println("COUNT CHECK: " + featureCounts);
+            featureVectorText.setLength(0);
+            featureVector.appendTo(featureVectorText);
+
+            // Emit: (IntWritable lexemeId, Text sparse_counts(F=f, L=l))
+            outVector.set(featureVectorText.toString());
+            context.write(outLexeme, outVector);
+        }
+    }
+
+    /**
+     * Step3 fused into the reducer (FUSE_STEP3_ARG): once a lexeme's counts are summed its association vectors
+     * are computed right away (see AssociationMeasures) and written as step3's output, so step3 is not run.
+     */
+    public static class FusedReducerClass extends Reducer<FeatureIdWritable, LongWritable, IntWritable, AssociationVectorsWritable> {
+
+        private AssociationMeasures association;
+        private final SparseVector featureVector = new SparseVector();
+        private final IntWritable outLexeme = new IntWritable();
+        private final AssociationVectorsWritable outVectors = new AssociationVectorsWritable();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            association = new AssociationMeasures(Utils.retrieveFeatureCounts(context.getConfiguration()),
+                    PipelineMetadata.get(context.getConfiguration()));
+        }
+
+        @Override
+        public void reduce(FeatureIdWritable feature, Iterable<LongWritable> counts, Context context) throws IOException, InterruptedException {
+            int lexemeId = feature.getLexemeId();
+            sumFeatureCounts(feature, counts, featureVector);
 
-            // From the dictionary builds a vector of the counts order by the lexicographic order of the feature's title.
-            // since the map is a tree map we will get a natural order of the features. Insuring consist structure in all the lexemes.
-            for (Map.Entry<String, Long> entry : featureCounts.entrySet()) {
-                featureVector.append(entry.getValue()).append(" ");
+            if (!association.compute(lexemeId, featureVector, outVectors)) {
+                return; //the lexeme is not in the corpus.
             }
+            // Emit: (IntWritable lexemeId, (v5, v6, v7, v8)), the same as step3's output
+            outLexeme.set(lexemeId);
+            context.write(outLexeme, outVectors);
+        }
+    }
 
-            // Emit: (Text lexeme, Text spaces_separated_counts(F=f, L=l))
-            context.write(lexeme, new Text(featureVector.toString().trim()));
+    /**
+     * Aggregates the Counts (L=l, F=f) of a lexeme while streaming: the framework updates feature's depLabelId with
+     * every value, equal depLabelIds are adjacent so a sum is complete once the depLabelId changes.
+     */
+    private static void sumFeatureCounts(FeatureIdWritable feature, Iterable<LongWritable> counts, SparseVector featureVector) {
+        featureVector.clear();
+        int depLabelId = -1;
+        long sum = 0;
+        for (LongWritable count : counts) {
+            if (feature.getDepLabelId() != depLabelId) {
+                if (sum != 0) featureVector.add(depLabelId, sum);
+                depLabelId = feature.getDepLabelId();
+                sum = 0;
+            }
+            sum += count.get();
         }
+        if (sum != 0) featureVector.add(depLabelId, sum);
     }
 
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // configures and runs the step, also called by PipelineDriver
+    public static boolean run(String[] args) throws Exception {
         System.out.println("[DEBUG] STEP 2 started!");
         System.out.println(args.length > 0 ? args[0] : "no args");
         Configuration conf = new Configuration();
+        IntermediateFormat.parseArgs(conf, args); //--intermediate= and --codec=, the same for all the steps
+        PipelinePaths.parseArgs(conf, args); //--input=, --output-root=, --sidedata-root=, --local
 
         /*
         // Set S3 as the default filesystem
@@ -134,32 +253,42 @@ public class Step2 {
         }
          */
 
-        Job job = Job.getInstance(conf, "Step 2");
+        // with FUSE_STEP3_ARG the reducer also computes the association vectors and writes step3's output
+        boolean fuseStep3 = Arrays.asList(args).contains(FUSE_STEP3_ARG);
+        System.out.println("[DEBUG] Step3 fused into step2: " + fuseStep3);
+
+        Job job = Job.getInstance(conf, fuseStep3 ? "Step 2 + Step 3" : "Step 2");
         job.setJarByClass(Step2.class);
         job.setMapperClass(MapperClass.class);
-        // job.setCombinerClass(ReducerClass.class); //commoner don't fit here
-        //job.setPartitionerClass(PartitionerClass.class);
-        job.setReducerClass(ReducerClass.class);
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(Text.class);
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
-        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setCombinerClass(CombinerClass.class); //still useful across in-mapper flushes
+        job.setPartitionerClass(FeatureIdWritable.LexemePartitioner.class);
+        job.setReducerClass(fuseStep3 ? FusedReducerClass.class : ReducerClass.class);
+        job.setMapOutputKeyClass(FeatureIdWritable.class);
+        job.setSortComparatorClass(FeatureIdWritable.Comparator.class); //raw bytes comparator, (lexemeId, depLabelId) order
+        job.setGroupingComparatorClass(FeatureIdWritable.LexemeComparator.class); //one reduce call per lexeme
+        job.setMapOutputValueClass(LongWritable.class);
+        job.setOutputKeyClass(IntWritable.class);
+        if (fuseStep3) {
+            job.setOutputValueClass(AssociationVectorsWritable.class); //step3's output
+        } else {
+            job.setOutputValueClass(IntermediateFormat.isText(job.getConfiguration()) ? Text.class : SparseVector.class);
+        }
+        IntermediateFormat.setOutput(job);
+        IntermediateFormat.compressMapOutput(job);
 
         //For demo testing input format
         job.setInputFormatClass(TextInputFormat.class);
-
-        //For demo testing
-        //FileInputFormat.addInputPath(job, new Path(String.format("%s/ass3inputtemp.txt" , App.s3Path))); //TODO: un-comment for demo
-
-        //Actual NGRAM
-        // Load only files 0.txt to 9.txt from s3a://biarcs/ for testing
-        for (int i = 0; i <= 9; i++) {
-            FileInputFormat.addInputPath(job, new Path("s3a://biarcs/" + i + ".txt"));
+        Dictionary.addToJob(job);
+        if (fuseStep3) {
+            Utils.addFeatureCountsToJob(job);
+            PipelineMetadata.addToJob(job);
         }
 
-        FileOutputFormat.setOutputPath(job, new Path(String.format("%s/outputs/output_step2", App.s3Path)));
+        // the corpus: s3a://biarcs/0.txt ... 9.txt, or --input= (e.g. the demo corpus ass3inputtemp.txt), or --local
+        PipelinePaths.addCorpusInput(job);
+
+        FileOutputFormat.setOutputPath(job, PipelinePaths.path(conf, fuseStep3 ? "outputs/output_step3" : "outputs/output_step2"));
 
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        return job.waitForCompletion(true);
     }
 }
\ No newline at end of file
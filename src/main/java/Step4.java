@@ -1,89 +1,155 @@
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
 
 /**
- * For each pair, build a 24-dimensions vector.
+ * For each pair of word-relatedness.txt, build a 24-dimensions vector.
  * Each entry denotes the similarity score for these two words according to one combination of association with context and vector similarity measures (4X6).
  * @Input step3's output
  * Output: (Text lexeme, Text space_separated_vector)
+ * With MAP_SIDE_JOIN_ARG it is a map-only job: every mapper holds all of step3's vectors (see MapSideJoinMapperClass).
+ * With PAIRS_ARG it scores candidate pairs (LshCandidates' output) instead of the gold pairs, into outputs/output_step4_candidates.
+ * With ALL_PAIRS_ARG it scores all the pairs exactly, block by block (see BlockMapperClass), into outputs/output_step4_all_pairs.
  */
 public class Step4 {
 
-    public static class MapperClass extends Mapper<LongWritable, Text, Text, Text> {
-
-        private Set<String> lexemeSet = new HashSet<>();
+    public static final String MAP_SIDE_JOIN_ARG = "--map-side-join";
+    public static final String PAIRS_PER_SPLIT_KEY = "step4.mapside.pairs.per.split";
+    public static final int DEFAULT_PAIRS_PER_SPLIT = 1000;
+    public static final String PAIRS_ARG = "--pairs="; // a directory of candidate pairs, relative to the output root
+    public static final String PAIRS_KEY = "step4.pairs";
+    public static final String ALL_PAIRS_ARG = "--all-pairs";
+    public static final String ALL_PAIRS_REDUCERS_KEY = "step4.allpairs.reducers"; // the number of blocks follows from it
+    public static final int DEFAULT_ALL_PAIRS_REDUCERS = 64;
+    public static final String TILE_KEY = "step4.allpairs.tile";
+    public static final int DEFAULT_TILE = 32;
+    static final String BLOCKS_KEY = "step4.allpairs.blocks"; // set by the driver
+
+    // input: step3's SequenceFile (IntWritable, AssociationVectorsWritable), or (LongWritable, Text) lines in IntermediateFormat's text mode
+    public static class MapperClass extends Mapper<Writable, Writable, LexemePairWritable, AssociationVectorsWritable> {
+
+        private GoldPairs goldPairs;
+        private final LexemePairWritable outPair = new LexemePairWritable();
+        private final AssociationVectorsWritable parsedVectors = new AssociationVectorsWritable(); //text mode only
 
         @Override
         protected void setup(Context context) throws IOException {
-
-            lexemeSet = Utils.retrieveLexemeSet();
+            Configuration conf = context.getConfiguration();
+            Dictionary dictionary = Dictionary.load(conf);
+            goldPairs = conf.get(PAIRS_KEY) == null ? GoldPairs.load(conf, dictionary) : GoldPairs.loadCandidates(conf, dictionary.numLexemes());
         } //end of mapper.setup
 
         @Override
-        public void map(LongWritable line_id, Text line, Context context) throws IOException, InterruptedException {
-            // line format: lexeme <tab> v5:v6:v7:v8
-            // vi is space-separated vector
-
-            String[] lineParts = line.toString().split("\t");
-            String lexeme1 = lineParts[0];
-            String vectors = lineParts[1];
-
-            // preforms fuzzy join
-            for (String lexeme2 : lexemeSet) {
-                // Use compareTo for lexicographic comparison
-                if (lexeme1.compareTo(lexeme2) < 0) {
-                    // lexeme1 comes before lexeme2 lexicographically
-                    context.write(new Text(lexeme1 + " " + lexeme2), new Text(vectors));
-                } else {
-                    // lexeme2 comes before lexeme1 lexicographically
-                    context.write(new Text(lexeme2 + " " + lexeme1), new Text(vectors));
-                }
+        public void map(Writable key, Writable value, Context context) throws IOException, InterruptedException {
+            int lexemeId1;
+            AssociationVectorsWritable vectors;
+            if (value instanceof AssociationVectorsWritable) {
+                // record: lexemeId, (v5, v6, v7, v8) binary, vi is a sparse vector
+                lexemeId1 = ((IntWritable) key).get();
+                vectors = (AssociationVectorsWritable) value;
+            } else {
+                // line format: lexemeId <tab> v5;v6;v7;v8
+                String[] lineParts = value.toString().split("\t");
+                lexemeId1 = Integer.parseInt(lineParts[0]);
+                parsedVectors.parse(lineParts[1]);
+                vectors = parsedVectors;
+            }
+
+            // join on the gold pairs: the vectors go only to the pairs of word-relatedness.txt the lexeme is in,
+            // each pair's reducer gets the vectors of its two lexemes
+            for (int i = goldPairs.partnersStart(lexemeId1); i < goldPairs.partnersEnd(lexemeId1); i++) {
+                // the pair is ordered by id, which is the lexicographic order of the lexemes
+                outPair.set(lexemeId1, goldPairs.partner(i));
+                context.write(outPair, vectors);
             }
         } //end map()
     }
 
 
-    public static class ReducerClass extends Reducer<Text, Text, Text, Text> {
+    /**
+     * The map-side join (run with MAP_SIDE_JOIN_ARG): no shuffle and no reducer.
+     * Every task loads all of step3's vectors (AssociationVectorStore, off-heap) once and computes the 24 measures
+     * of its share of the gold pairs. Input: lines of lexemeId1 <tab> lexemeId2, written by the driver, split by NLineInputFormat.
+     */
+    public static class MapSideJoinMapperClass extends Mapper<LongWritable, Text, Text, Text> {
+
+        private Dictionary dictionary;
+        private AssociationVectorStore store;
+        private final AssociationVectorsWritable lexeme1_vectors = new AssociationVectorsWritable(); // reused for every pair
+        private final AssociationVectorsWritable lexeme2_vectors = new AssociationVectorsWritable();
+        private final Text outPair = new Text();
+        private final Text outVector = new Text();
 
         @Override
-        public void reduce(Text lexemes, Iterable<Text> unitedVectors, Context context) throws IOException, InterruptedException, IllegalArgumentException {
-            // Input format: lexeme1 lexeme2 <TAB> v5:v6:v7:v8
-            // Expecting 2 values per key
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            dictionary = Dictionary.load(conf);
+            store = AssociationVectorStore.load(conf, dictionary.numLexemes());
+            System.out.println("[DEBUG] Loaded " + store.numVectors() + " lexemes' vectors, " + store.bytes() + " bytes off-heap");
+        }
 
-            double[][] lexeme1_vectors = new double[4][];
-            double[][] lexeme2_vectors = new double[4][];
+        @Override
+        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // line format: lexemeId1 <tab> lexemeId2
+            String[] lineParts = value.toString().split("\t");
+            if (lineParts.length < 2) return; // Skip malformed lines
+            int lexemeId1 = Integer.parseInt(lineParts[0]);
+            int lexemeId2 = Integer.parseInt(lineParts[1]);
+            if (!store.contains(lexemeId1) || !store.contains(lexemeId2)) {
+                return; // One of the lexemes of the gold pair is not in the corpus (step3 has no vectors for it).
+            }
 
-            int i = 0;
-            for (Text unitedVector : unitedVectors) {
-                String[] vectors = unitedVector.toString().split(":");
-                // vectors = v5:v6:v7:v8  vi is a space separated vector
-                if (vectors.length != 4) {
-                    throw new IOException("For " + lexemes.toString() + "Expected 4 vectors (v5:v6:v7:v8), but got " + vectors.length);
-                }
+            store.get(lexemeId1, lexeme1_vectors);
+            store.get(lexemeId2, lexeme2_vectors);
+            // same output as the reducer: lexeme1 lexeme2 <tab> 24 vector
+            outPair.set(dictionary.lexeme(lexemeId1) + " " + dictionary.lexeme(lexemeId2));
+            outVector.set(ReducerClass.similarityVector(lexeme1_vectors, lexeme2_vectors));
+            context.write(outPair, outVector);
+        }
+    }
+
+
+    public static class ReducerClass extends Reducer<LexemePairWritable, AssociationVectorsWritable, Text, Text> {
+
+        private Dictionary dictionary;
+        private final AssociationVectorsWritable lexeme1_vectors = new AssociationVectorsWritable(); // reused for every pair
+        private final AssociationVectorsWritable lexeme2_vectors = new AssociationVectorsWritable();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            dictionary = Dictionary.load(context.getConfiguration());
+        }
 
+        @Override
+        public void reduce(LexemePairWritable lexemes, Iterable<AssociationVectorsWritable> unitedVectors, Context context) throws IOException, InterruptedException, IllegalArgumentException {
+            // Input format: (lexemeId1, lexemeId2) <TAB> (v5, v6, v7, v8)
+            // Expecting 2 values per key
 
+            int i = 0;
+            for (AssociationVectorsWritable unitedVector : unitedVectors) {
+                // the framework reuses the value object, so the non-zero entries are copied into the reused vectors
                 if (i == 0) {
-                    for (int j=0; j<4; j++){
-                        lexeme1_vectors[j] = Arrays.stream(vectors[j].split(" ")).mapToDouble(Double::parseDouble).toArray();
-                    }
+                    lexeme1_vectors.set(unitedVector);
                 }
 
                 if (i == 1) {
-                    for (int j=0; j<4; j++){
-                        lexeme2_vectors[j] = Arrays.stream(vectors[j].split(" ")).mapToDouble(Double::parseDouble).toArray();
-                    }
+                    lexeme2_vectors.set(unitedVector);
                 }
 
                 i++;
@@ -92,43 +158,46 @@ public class Step4 {
 
             if (i!=2) {
                 // throw new IllegalArgumentException("Expected 2 vectors for " + lexemes.toString() + " unitedVectors: " + unitedVectors.toString());
-                return; // One of the lexeme is not in the corpus but is presented because it is in the word-relatedness.txt.
+                return; // One of the lexemes of the gold pair is not in the corpus (step3 has no vectors for it).
             }
 
 
 
+            // Output key: lexeme1 lexeme2 (the words, not the ids)
+            context.write(new Text(dictionary.lexeme(lexemes.getFirst()) + " " + dictionary.lexeme(lexemes.getSecond())),
+                    new Text(similarityVector(lexeme1_vectors, lexeme2_vectors)));
+
+        }//end reduce
+
+
+        /**
+         * The 24 similarity measures of a pair, from the two lexemes' sparse vectors.
+         * Shared by the reducer and the map-side join (MapSideJoinMapperClass).
+         * @return the space separated 24 vector
+         */
+        static String similarityVector(AssociationVectorsWritable lexeme1_vectors, AssociationVectorsWritable lexeme2_vectors) {
             // Compute results and store them in result_24_vector
             // The 24_vector format is that for each measure of association have six continuous entries in the vector representing the different measures of vector similarity.
             // The orders of the measures is by the order of the artical.
-            List<Double> result_24_vector = new ArrayList<>();
+            double[] result_24_vector = new double[4 * SimilarityMeasures.NUM_MEASURES];
             for (int j = 0; j < 4; j++) {
-                double[] vec1 = lexeme1_vectors[j];
-                double[] vec2 = lexeme2_vectors[j];
-
-                if (vec1.length == 0 || vec2.length == 0) {
-                    throw new IllegalArgumentException("Vector length is 0. vec1 = " + vec1 + ", vec2 = " + vec2);
-                }
-
-                if (vec1.length != vec2.length) {
-                    throw new IllegalArgumentException("Vector length mismatch: vec1 = " + vec1 + ", vec2 = " + vec2);
-                }
-
-                result_24_vector.add(dist_by_method_9(vec1, vec2));
-                result_24_vector.add(dist_by_method_10(vec1, vec2));
-                result_24_vector.add(dist_by_method_11(vec1, vec2));
-                result_24_vector.add(dist_by_method_13(vec1, vec2));
-                result_24_vector.add(dist_by_method_15(vec1, vec2));
-                result_24_vector.add(dist_by_method_17(vec1, vec2));
+                // methods 9, 10, 11, 13, 15, 17 from the cross terms of the non-zero entries and step3's per-vector statistics
+                // (the dist_by_method_* below are the dense reference)
+                SimilarityMeasures.measure(lexeme1_vectors.get(j), lexeme1_vectors.stats(j), lexeme2_vectors.get(j), lexeme2_vectors.stats(j),
+                        result_24_vector, j * SimilarityMeasures.NUM_MEASURES);
             }
 
-            String result_24_vector_str = result_24_vector.stream().map(String::valueOf).reduce((a, b) -> a + " " + b).orElse("");
-            context.write(lexemes, new Text(result_24_vector_str));
-
-        }//end reduce
+            StringBuilder result_24_vector_str = new StringBuilder();
+            for (int k = 0; k < result_24_vector.length; k++) {
+                if (k > 0) result_24_vector_str.append(' ');
+                result_24_vector_str.append(result_24_vector[k]);
+            }
+            return result_24_vector_str.toString();
+        }
 
 
         ///////// Measures of Vector Similarity /////////
-        protected double dist_by_method_9(double[] vector1, double[] vector2) {
+        protected static double dist_by_method_9(double[] vector1, double[] vector2) {
             double sum = 0.0;
                 for (int i = 0; i < vector1.length; i++) {
                     sum += Math.abs(vector1[i] - vector2[i]);
@@ -136,7 +205,7 @@ public class Step4 {
             return sum;
         }
 
-        protected double dist_by_method_10(double[] vector1, double[] vector2) {
+        protected static double dist_by_method_10(double[] vector1, double[] vector2) {
             double sum = 0.0;
             for (int i = 0; i < vector1.length; i++) {
                 sum += Math.pow((vector1[i] - vector2[i]), 2);
@@ -144,7 +213,7 @@ public class Step4 {
             return Math.sqrt(sum);
         }
 
-        protected double dist_by_method_11(double[] vector1, double[] vector2) {
+        protected static double dist_by_method_11(double[] vector1, double[] vector2) {
             double sumOfProducts = 0.0;
             double sumOfSquaredVector1 = 0.0;
             double sumOfSquaredVector2 = 0.0;
@@ -160,7 +229,7 @@ public class Step4 {
             }
         }
 
-        protected double dist_by_method_13(double[] vector1, double[] vector2) {
+        protected static double dist_by_method_13(double[] vector1, double[] vector2) {
             double sumOfMin = 0.0;
             double sumOfMax = 0.0;
             for (int i = 0; i < vector1.length; i++) {
@@ -171,7 +240,7 @@ public class Step4 {
             return (sumOfMin!=0 && sumOfMax!=0) ? (sumOfMin / sumOfMax) : 0;
         }
 
-        protected double dist_by_method_15(double[] vector1, double[] vector2) {
+        protected static double dist_by_method_15(double[] vector1, double[] vector2) {
             double sumOfMin = 0.0;
             double sumOfCoordinate = 0.0;
             for (int i = 0; i < vector1.length; i++) {
@@ -181,7 +250,7 @@ public class Step4 {
             return (sumOfMin!=0 && sumOfCoordinate!=0) ? (2* sumOfMin / sumOfCoordinate) : 0;
         }
 
-        protected double dist_by_method_17(double[] vector1, double[] vector2) {
+        protected static double dist_by_method_17(double[] vector1, double[] vector2) {
 
             // Compute the Kullback-Leibler divergence
 
@@ -198,7 +267,7 @@ public class Step4 {
         }
 
         // Calculate Kullback-Leibler Divergence
-        private double klDivergence(double[] p, double[] q) {
+        private static double klDivergence(double[] p, double[] q) {
             double klDiv = 0.0;
             for (int i = 0; i < p.length; i++) {
                 if (p[i] > 0 && q[i] > 0) {  // Prevent log(0)
@@ -211,11 +280,208 @@ public class Step4 {
 
 
 
+    /**
+     * A lexeme's id and vectors, the value of the all-pairs join.
+     */
+    public static class LexemeVectorsWritable implements Writable {
+
+        private int lexemeId;
+        private final AssociationVectorsWritable vectors = new AssociationVectorsWritable();
+
+        public int getLexemeId() {
+            return lexemeId;
+        }
+
+        public AssociationVectorsWritable getVectors() {
+            return vectors;
+        }
+
+        public void set(int lexemeId, AssociationVectorsWritable vectors) {
+            this.lexemeId = lexemeId;
+            this.vectors.set(vectors);
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(lexemeId);
+            vectors.write(out);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            lexemeId = in.readInt();
+            vectors.readFields(in);
+        }
+    }
+
+
+    /**
+     * All-pairs (run with ALL_PAIRS_ARG): the lexemes are split into B blocks (lexemeId % B), every block pair (a <= b)
+     * is one reduce key, and a lexeme's vectors go only to the B block pairs of its block, instead of to every other lexeme.
+     * With B(B+1)/2 block pairs, one per reducer, the replication is B ~ sqrt(2 * reducers).
+     * Key: the block pair's index b(b+1)/2 + a, the default partitioner sends index k to reducer k.
+     */
+    public static class BlockMapperClass extends Mapper<Writable, Writable, IntWritable, LexemeVectorsWritable> {
+
+        private int blocks;
+        private final IntWritable outBlockPair = new IntWritable();
+        private final LexemeVectorsWritable outVectors = new LexemeVectorsWritable();
+        private final AssociationVectorsWritable parsedVectors = new AssociationVectorsWritable(); //text mode only
+
+        @Override
+        protected void setup(Context context) {
+            blocks = context.getConfiguration().getInt(BLOCKS_KEY, 1);
+        }
+
+        @Override
+        public void map(Writable key, Writable value, Context context) throws IOException, InterruptedException {
+            int lexemeId;
+            AssociationVectorsWritable vectors;
+            if (value instanceof AssociationVectorsWritable) {
+                lexemeId = ((IntWritable) key).get();
+                vectors = (AssociationVectorsWritable) value;
+            } else {
+                // line format: lexemeId <tab> v5;v6;v7;v8
+                String[] lineParts = value.toString().split("\t");
+                lexemeId = Integer.parseInt(lineParts[0]);
+                parsedVectors.parse(lineParts[1]);
+                vectors = parsedVectors;
+            }
+
+            outVectors.set(lexemeId, vectors);
+            int block = lexemeId % blocks;
+            for (int other = 0; other < blocks; other++) {
+                outBlockPair.set(blockPair(Math.min(block, other), Math.max(block, other)));
+                context.write(outBlockPair, outVectors);
+            }
+        }
+    }
+
+
+    /**
+     * Scores every pair of a block pair: the upper triangle of the block with itself (a == b), or all of a x b.
+     * The two blocks' vectors are held in memory (2N/B lexemes), the loops run tile by tile (TILE_KEY lexemes per side)
+     * so a tile's vectors stay in the cache while they are compared with the other tile.
+     */
+    public static class BlockReducerClass extends Reducer<IntWritable, LexemeVectorsWritable, Text, Text> {
+
+        private Dictionary dictionary;
+        private int blocks;
+        private int tile;
+        // the block pair's lexemes, reused (and grown) for every block pair
+        private LexemeVectorsWritable[] blockA = new LexemeVectorsWritable[0];
+        private LexemeVectorsWritable[] blockB = new LexemeVectorsWritable[0];
+        private int sizeA;
+        private int sizeB;
+        private final Text outPair = new Text();
+        private final Text outVector = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            dictionary = Dictionary.load(conf);
+            blocks = conf.getInt(BLOCKS_KEY, 1);
+            tile = Math.max(1, conf.getInt(TILE_KEY, DEFAULT_TILE));
+        }
+
+        @Override
+        public void reduce(IntWritable blockPair, Iterable<LexemeVectorsWritable> values, Context context) throws IOException, InterruptedException {
+            int b = (int) ((Math.sqrt(8.0 * blockPair.get() + 1) - 1) / 2);
+            while (blockPair(0, b + 1) <= blockPair.get()) b++; // the square root may round down across a boundary
+            while (blockPair(0, b) > blockPair.get()) b--;
+            int a = blockPair.get() - blockPair(0, b);
+
+            sizeA = 0;
+            sizeB = 0;
+            for (LexemeVectorsWritable value : values) {
+                // the framework reuses the value object, so the vectors are copied
+                if (a != b && value.getLexemeId() % blocks == b) {
+                    blockB = add(blockB, sizeB++, value);
+                } else {
+                    blockA = add(blockA, sizeA++, value);
+                }
+            }
+
+            boolean diagonal = a == b;
+            LexemeVectorsWritable[] others = diagonal ? blockA : blockB;
+            int sizeOthers = diagonal ? sizeA : sizeB;
+            for (int i0 = 0; i0 < sizeA; i0 += tile) {
+                for (int j0 = diagonal ? i0 : 0; j0 < sizeOthers; j0 += tile) {
+                    int iEnd = Math.min(i0 + tile, sizeA);
+                    int jEnd = Math.min(j0 + tile, sizeOthers);
+                    for (int i = i0; i < iEnd; i++) {
+                        for (int j = diagonal ? Math.max(j0, i + 1) : j0; j < jEnd; j++) {
+                            write(blockA[i], others[j], context);
+                        }
+                    }
+                }
+            }
+        }
+
+        // same output as ReducerClass, the pair ordered by id: lexeme1 lexeme2 <tab> 24 vector
+        private void write(LexemeVectorsWritable lexeme1, LexemeVectorsWritable lexeme2, Context context) throws IOException, InterruptedException {
+            if (lexeme1.getLexemeId() > lexeme2.getLexemeId()) {
+                LexemeVectorsWritable swap = lexeme1;
+                lexeme1 = lexeme2;
+                lexeme2 = swap;
+            }
+            outPair.set(dictionary.lexeme(lexeme1.getLexemeId()) + " " + dictionary.lexeme(lexeme2.getLexemeId()));
+            outVector.set(ReducerClass.similarityVector(lexeme1.getVectors(), lexeme2.getVectors()));
+            context.write(outPair, outVector);
+        }
+
+        private static LexemeVectorsWritable[] add(LexemeVectorsWritable[] block, int size, LexemeVectorsWritable value) {
+            if (size == block.length) {
+                block = Arrays.copyOf(block, Math.max(16, 2 * size));
+            }
+            if (block[size] == null) {
+                block[size] = new LexemeVectorsWritable();
+            }
+            block[size].set(value.getLexemeId(), value.getVectors());
+            return block;
+        }
+    }
+
+    /**
+     * @return the index of the block pair (a, b), a <= b, in the upper triangle: b(b+1)/2 + a
+     */
+    static int blockPair(int a, int b) {
+        return b * (b + 1) / 2 + a;
+    }
+
+    /**
+     * @return the largest number of blocks B with B(B+1)/2 block pairs <= reducers
+     */
+    static int blocks(int reducers) {
+        int blocks = 1;
+        while ((blocks + 1) * (blocks + 2) / 2 <= reducers) blocks++;
+        return blocks;
+    }
+
+
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // configures and runs the step, also called by PipelineDriver
+    public static boolean run(String[] args) throws Exception {
         System.out.println("[DEBUG] STEP 4 started!");
         System.out.println(args.length > 0 ? args[0] : "no args");
         Configuration conf = new Configuration();
+        IntermediateFormat.parseArgs(conf, args); //--intermediate= and --codec=, the same for all the steps
+        PipelinePaths.parseArgs(conf, args); //--input=, --output-root=, --sidedata-root=, --local
+        for (String arg : args) {
+            if (arg.startsWith(PAIRS_ARG)) {
+                conf.set(PAIRS_KEY, arg.substring(PAIRS_ARG.length()));
+            }
+        }
 
+        if (Arrays.asList(args).contains(ALL_PAIRS_ARG)) {
+            return runAllPairs(conf);
+        }
+        if (Arrays.asList(args).contains(MAP_SIDE_JOIN_ARG)) {
+            return runMapSideJoin(conf);
+        }
 
         Job job = Job.getInstance(conf, "Step 4");
         job.setJarByClass(Step4.class);
@@ -223,17 +489,98 @@ public class Step4 {
         // job.setCombinerClass(ReducerClass.class); //commoner don't fit here
         //job.setPartitionerClass(PartitionerClass.class);
         job.setReducerClass(ReducerClass.class);
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(Text.class);
+        job.setMapOutputKeyClass(LexemePairWritable.class);
+        job.setSortComparatorClass(LexemePairWritable.Comparator.class); //raw bytes comparator
+        job.setMapOutputValueClass(AssociationVectorsWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setOutputFormatClass(TextOutputFormat.class); //the final output, read by Step5ConvertToARFF
+        IntermediateFormat.compressMapOutput(job);
+
+        IntermediateFormat.setInput(job); //step3's binary vectors
+        Dictionary.addToJob(job);
+        if (conf.get(PAIRS_KEY) == null) {
+            GoldPairs.addToJob(job);
+        } else {
+            GoldPairs.addCandidatesToJob(job, PipelinePaths.path(conf, conf.get(PAIRS_KEY)));
+        }
+
+        FileInputFormat.addInputPath(job, PipelinePaths.path(conf, "outputs/output_step3"));
+        FileOutputFormat.setOutputPath(job, output(conf));
+
+        return job.waitForCompletion(true);
+    } //end of run
+
+    /**
+     * Step 4 as a map-only job (see MapSideJoinMapperClass). Same output as the reduce-side join, in part-m-* files.
+     */
+    private static boolean runMapSideJoin(Configuration conf) throws Exception {
+        FileSystem fs = PipelinePaths.fileSystem(conf);
+        Dictionary dictionary = Dictionary.read(fs, PipelinePaths.path(conf, Dictionary.DICTIONARY_DIR));
+
+        Job job = Job.getInstance(conf, "Step 4: map-side join");
+        job.setJarByClass(Step4.class);
+        job.setMapperClass(MapSideJoinMapperClass.class);
+        job.setNumReduceTasks(0); // no sort, no shuffle
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setOutputFormatClass(TextOutputFormat.class); //the final output, read by Step5ConvertToARFF
+
+        // the mappers' input is the gold pair list (or the candidate pairs), split into chunks of PAIRS_PER_SPLIT_KEY pairs
+        Path pairsFile;
+        if (conf.get(PAIRS_KEY) == null) {
+            GoldPairs.addToJob(job);
+            pairsFile = PipelinePaths.path(conf, "outputs/gold_pairs/pairs.txt");
+            GoldPairs goldPairs = GoldPairs.load(job.getConfiguration(), dictionary);
+            goldPairs.write(fs, pairsFile);
+            System.out.println("[DEBUG] " + goldPairs.numPairs() + " gold pairs");
+        } else {
+            pairsFile = PipelinePaths.path(conf, conf.get(PAIRS_KEY)); // already lines of lexemeId1 <tab> lexemeId2
+        }
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.setNumLinesPerSplit(job, conf.getInt(PAIRS_PER_SPLIT_KEY, DEFAULT_PAIRS_PER_SPLIT));
+        FileInputFormat.addInputPath(job, pairsFile);
+
+        Dictionary.addToJob(job);
+        AssociationVectorStore.addToJob(job);
+
+        FileOutputFormat.setOutputPath(job, output(conf));
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Step 4 over all the pairs, block by block (see BlockMapperClass).
+     */
+    private static boolean runAllPairs(Configuration conf) throws Exception {
+        int blocks = blocks(conf.getInt(ALL_PAIRS_REDUCERS_KEY, DEFAULT_ALL_PAIRS_REDUCERS));
+        conf.setInt(BLOCKS_KEY, blocks);
+        System.out.println("[DEBUG] " + blocks + " blocks, " + blockPair(0, blocks) + " block pairs");
+
+        Job job = Job.getInstance(conf, "Step 4: all pairs");
+        job.setJarByClass(Step4.class);
+        job.setMapperClass(BlockMapperClass.class);
+        job.setReducerClass(BlockReducerClass.class);
+        job.setNumReduceTasks(blockPair(0, blocks)); // one block pair per reducer
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(LexemeVectorsWritable.class);
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(Text.class);
         job.setOutputFormatClass(TextOutputFormat.class);
+        IntermediateFormat.compressMapOutput(job);
 
-        job.setInputFormatClass(TextInputFormat.class);
+        IntermediateFormat.setInput(job); //step3's binary vectors
+        Dictionary.addToJob(job);
 
-        FileInputFormat.addInputPath(job, new Path(String.format("%s/outputs/output_step3", App.s3Path)));
-        FileOutputFormat.setOutputPath(job, new Path(String.format("%s/outputs/output_step4", App.s3Path)));
+        FileInputFormat.addInputPath(job, PipelinePaths.path(conf, "outputs/output_step3"));
+        FileOutputFormat.setOutputPath(job, PipelinePaths.path(conf, "outputs/output_step4_all_pairs"));
 
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
-    } //end of main
+        return job.waitForCompletion(true);
+    }
+
+    // the gold pairs' output is read by Step5ConvertToARFF, the candidates' output is kept apart
+    private static Path output(Configuration conf) {
+        String dir = conf.get(PAIRS_KEY) == null ? "output_step4" : "output_step4_candidates";
+        return PipelinePaths.path(conf, "outputs/" + dir);
+    }
 }
@@ -1,3 +1,6 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
 import java.io.*;
 import java.util.*;
 
@@ -8,9 +11,22 @@ public class Step5ConvertToARFF {
     }
 
     public static void main(String[] args) throws IOException {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    // also called by PipelineDriver (--local)
+    public static boolean run(String[] args) throws IOException {
         String step4OutputDir = "resources/results";
         String goldStandardPath = "resources/word-relatedness.txt";
         String arffOutputPath = "resources/InpuOutputExample/Output/Step5_semantic_similarity.arff";
+        if (!PipelinePaths.selectArgs(args).isEmpty()) {
+            // a pipeline run's output on the local file system (--local or local roots, see PipelinePaths)
+            Configuration conf = new Configuration();
+            PipelinePaths.parseArgs(conf, args);
+            step4OutputDir = localPath(PipelinePaths.path(conf, "outputs/output_step4"));
+            goldStandardPath = localPath(PipelinePaths.sideData(conf, GoldPairs.GOLD_FILE));
+            arffOutputPath = localPath(PipelinePaths.path(conf, "outputs/Step5_semantic_similarity.arff"));
+        }
 
         // Load gold standard as a HashMap
         Map<String, Boolean> goldStandard = new HashMap<>();
@@ -46,8 +62,12 @@ public class Step5ConvertToARFF {
             writer.println("@DATA");
 
             File dir = new File(step4OutputDir);
-            File[] partFiles = dir.listFiles((d, name) -> name.startsWith("part-r-"));
-            if (partFiles == null) return;
+            // part-r-* files, or part-m-* from step4's map-side join
+            File[] partFiles = dir.listFiles((d, name) -> name.startsWith("part-"));
+            if (partFiles == null) {
+                System.err.println("[ERROR] No step 4 output in " + step4OutputDir);
+                return false;
+            }
 
             for (File partFile : partFiles) {
                 try (BufferedReader reader = new BufferedReader(new FileReader(partFile))) {
@@ -89,5 +109,10 @@ public class Step5ConvertToARFF {
         }
 
         System.out.println("ARFF file created successfully: " + arffOutputPath);
+        return true;
+    }
+
+    private static String localPath(Path path) {
+        return path.toUri().getPath();
     }
 }
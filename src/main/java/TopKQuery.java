@@ -0,0 +1,134 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Query mode (not one of App's steps): the k lexemes most similar to each query word, see LexemeIndex.
+ * A map-only job, every mapper indexes all of step3's vectors once and answers its share of the queries.
+ * @pre step3's output and the dictionary, the query words in queries.txt in the S3 bucket (one word per line)
+ * @Input the query words
+ * Output: (Text word, Text space separated neighbor:score, most similar first)
+ * Usage: TopKQuery [--k=50] [--association=5|6|7|8] [--measure=9|10|11|13|15|17] [--queries=path] [--intermediate=... --codec=...]
+ */
+public class TopKQuery {
+
+    public static final String K_KEY = "topk.k";
+    public static final String ASSOCIATION_KEY = "topk.association"; // 5 ... 8, the article's method
+    public static final String MEASURE_KEY = "topk.measure"; // 9, 10, 11, 13, 15 or 17, the article's method
+    public static final String QUERIES_PER_SPLIT_KEY = "topk.queries.per.split";
+
+    public static class MapperClass extends Mapper<LongWritable, Text, Text, Text> {
+
+        private Dictionary dictionary;
+        private LexemeIndex index;
+        private int k;
+        private int association;
+        private int measure;
+        private final Text outWord = new Text();
+        private final Text outNeighbors = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            dictionary = Dictionary.load(conf);
+            index = new LexemeIndex(AssociationVectorStore.load(conf, dictionary.numLexemes()), dictionary.numDepLabels());
+            k = conf.getInt(K_KEY, 50);
+            association = association(conf.getInt(ASSOCIATION_KEY, 5));
+            measure = measure(conf.getInt(MEASURE_KEY, 11));
+        }
+
+        @Override
+        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            String word = value.toString().trim();
+            if (word.isEmpty()) return; // Skip empty lines
+
+            // stemmed like the dictionary's lexemes (see GoldPairs)
+            int lexemeId = dictionary.lexemeId(Utils.stemAndReturn(Utils.stemAndReturn(word)));
+            if (lexemeId == Dictionary.NOT_FOUND || !index.contains(lexemeId)) {
+                return; // not a lexeme of the corpus
+            }
+
+            StringBuilder neighbors = new StringBuilder();
+            List<LexemeIndex.Neighbor> topK = index.topK(lexemeId, association, measure, k);
+            for (LexemeIndex.Neighbor neighbor : topK) {
+                if (neighbors.length() > 0) neighbors.append(' ');
+                neighbors.append(dictionary.lexeme(neighbor.getLexemeId())).append(':').append(neighbor.getScore());
+            }
+            outWord.set(word);
+            outNeighbors.set(neighbors.toString());
+            context.write(outWord, outNeighbors);
+        }
+    }
+
+    /**
+     * @param method 5 ... 8
+     * @return the association's index in AssociationVectorsWritable
+     */
+    static int association(int method) {
+        if (method < 5 || method > 8) {
+            throw new IllegalArgumentException("TopKQuery: unknown association " + method + " (5, 6, 7 or 8)");
+        }
+        return method - 5;
+    }
+
+    /**
+     * @param method 9, 10, 11, 13, 15 or 17
+     * @return the measure's index in SimilarityMeasures
+     */
+    static int measure(int method) {
+        for (int m = 0; m < SimilarityMeasures.NUM_MEASURES; m++) {
+            if (SimilarityMeasures.METHODS[m] == method) return m;
+        }
+        throw new IllegalArgumentException("TopKQuery: unknown measure " + method + " (9, 10, 11, 13, 15 or 17)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("[DEBUG] TopKQuery started!");
+        Configuration conf = new Configuration();
+        IntermediateFormat.parseArgs(conf, args); //how step3's output was written
+        PipelinePaths.parseArgs(conf, args); //--output-root=, --sidedata-root=, --local
+        String queries = PipelinePaths.sideData(conf, "queries.txt").toString();
+        for (String arg : args) {
+            if (arg.startsWith("--k=")) {
+                conf.setInt(K_KEY, Integer.parseInt(arg.substring("--k=".length())));
+            } else if (arg.startsWith("--association=")) {
+                conf.setInt(ASSOCIATION_KEY, Integer.parseInt(arg.substring("--association=".length())));
+            } else if (arg.startsWith("--measure=")) {
+                conf.setInt(MEASURE_KEY, Integer.parseInt(arg.substring("--measure=".length())));
+            } else if (arg.startsWith("--queries=")) {
+                queries = arg.substring("--queries=".length());
+            }
+        }
+        // fail in the driver, not in every mapper
+        association(conf.getInt(ASSOCIATION_KEY, 5));
+        measure(conf.getInt(MEASURE_KEY, 11));
+
+        Job job = Job.getInstance(conf, "TopKQuery");
+        job.setJarByClass(TopKQuery.class);
+        job.setMapperClass(MapperClass.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.setNumLinesPerSplit(job, conf.getInt(QUERIES_PER_SPLIT_KEY, 100));
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        Dictionary.addToJob(job);
+        AssociationVectorStore.addToJob(job);
+
+        FileInputFormat.addInputPath(job, new Path(queries));
+        FileOutputFormat.setOutputPath(job, PipelinePaths.path(conf, "outputs/output_topk"));
+
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
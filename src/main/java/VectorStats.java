@@ -0,0 +1,97 @@
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Per-vector statistics, computed once by Step3 and carried with each association vector (see AssociationVectorsWritable),
+ * so Step4's kernel (SimilarityMeasures) doesn't recompute them for every pair the vector is in:
+ *   positiveSum, negativeSum - the sums of the positive / negative entries (L1 sum = positiveSum - negativeSum)
+ *   sumOfSquares, norm       - the L2 norm and its square
+ *   nonZeros                 - the number of non-zero entries (the vector's size, not serialized twice)
+ */
+public class VectorStats implements Writable {
+
+    private double positiveSum;
+    private double negativeSum;
+    private double sumOfSquares;
+    private double norm;
+    private int nonZeros;
+
+    public void compute(SparseVector vector) {
+        positiveSum = 0.0;
+        negativeSum = 0.0;
+        sumOfSquares = 0.0;
+        for (int entry = 0; entry < vector.size(); entry++) {
+            double value = vector.value(entry);
+            if (value > 0) {
+                positiveSum += value;
+            } else {
+                negativeSum += value;
+            }
+            sumOfSquares += value * value;
+        }
+        norm = Math.sqrt(sumOfSquares);
+        nonZeros = vector.size();
+    }
+
+    public void set(VectorStats other) {
+        positiveSum = other.positiveSum;
+        negativeSum = other.negativeSum;
+        sumOfSquares = other.sumOfSquares;
+        norm = other.norm;
+        nonZeros = other.nonZeros;
+    }
+
+    public double positiveSum() {
+        return positiveSum;
+    }
+
+    public double negativeSum() {
+        return negativeSum;
+    }
+
+    public double sumOfSquares() {
+        return sumOfSquares;
+    }
+
+    public double norm() {
+        return norm;
+    }
+
+    public int nonZeros() {
+        return nonZeros;
+    }
+
+    void set(double positiveSum, double negativeSum, double sumOfSquares, double norm, int nonZeros) {
+        this.positiveSum = positiveSum;
+        this.negativeSum = negativeSum;
+        this.sumOfSquares = sumOfSquares;
+        this.norm = norm;
+        this.nonZeros = nonZeros;
+    }
+
+    /**
+     * Sets nonZeros, which is written with the vector (see AssociationVectorsWritable).
+     */
+    void setNonZeros(int nonZeros) {
+        this.nonZeros = nonZeros;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeDouble(positiveSum);
+        out.writeDouble(negativeSum);
+        out.writeDouble(sumOfSquares);
+        out.writeDouble(norm);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        positiveSum = in.readDouble();
+        negativeSum = in.readDouble();
+        sumOfSquares = in.readDouble();
+        norm = in.readDouble();
+    }
+}
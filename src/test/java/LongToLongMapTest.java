@@ -0,0 +1,147 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LongToLongMap and the in-mapper combining budget of Step1's and Step2's mappers: the map flushes when
+ * memoryBytes() > the budget, then clear()s and keeps going.
+ */
+public class LongToLongMapTest {
+
+    @Test
+    public void addAndGet() {
+        Random random = new Random(1);
+        LongToLongMap map = new LongToLongMap(4);
+        Map<Long, Long> reference = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = FeatureIdWritable.pack(random.nextInt(3000), random.nextInt(10) - 1);
+            long delta = 1 + random.nextInt(100);
+            map.add(key, delta);
+            reference.merge(key, delta, Long::sum);
+        }
+        assertEquals(reference.size(), map.size());
+        for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+            assertEquals(entry.getValue().longValue(), map.get(entry.getKey(), -1));
+        }
+        assertEquals(-1, map.get(FeatureIdWritable.pack(5000, 0), -1));
+    }
+
+    @Test
+    public void memoryBytesAfterClear() {
+        LongToLongMap map = new LongToLongMap(16);
+        for (long key = 0; key < 100_000; key++) {
+            map.add(key, 1);
+        }
+        long grownMemoryBytes = map.memoryBytes();
+        int grownCapacity = map.capacity();
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, map.memoryBytes()); // the live entries, not the kept arrays
+        assertEquals(grownCapacity, map.capacity());
+
+        map.add(7, 3);
+        assertEquals(3, map.get(7, 0));
+        assertTrue(map.memoryBytes() < grownMemoryBytes / 1000);
+        // the kept arrays stay within about twice the budget that was reached
+        assertTrue((long) grownCapacity * (8 + 8 + 1) <= 2 * grownMemoryBytes);
+    }
+
+    @Test
+    public void entriesWithinIsTheInverseOfMemoryBytes() {
+        for (long budget : new long[]{1, 33, 34, 35, 1000, 65_536, 1_000_003, Step1.MapperClass.DEFAULT_IN_MAPPER_MEMORY}) {
+            long entries = LongToLongMap.entriesWithin(budget);
+            assertTrue(entries >= 1);
+            LongToLongMap map = new LongToLongMap(16);
+            for (long key = 0; key < entries; key++) {
+                map.add(key, 1);
+            }
+            if (budget >= memoryBytesOfOneEntry()) {
+                assertTrue("budget " + budget, map.memoryBytes() <= budget);
+            }
+            map.add(-1, 1);
+            assertTrue("budget " + budget, map.memoryBytes() > budget);
+        }
+    }
+
+    @Test
+    public void flushesStayBoundedOnceTheTableHasGrown() {
+        long budget = 64 * 1024;
+        long[] flushesAndRecords = combine(budget, 300_000, 5, 50_000);
+        // a flush before the last one writes at least entriesWithin(budget) records
+        long maxFlushes = flushesAndRecords[1] / LongToLongMap.entriesWithin(budget) + 1;
+        assertTrue(flushesAndRecords[0] + " flushes, at most " + maxFlushes, flushesAndRecords[0] <= maxFlushes);
+        assertTrue(flushesAndRecords[0] > 10); // the table did fill and grow
+    }
+
+    @Test
+    public void step1DefaultBudget() {
+        long budget = Step1.MapperClass.DEFAULT_IN_MAPPER_MEMORY;
+        long entries = LongToLongMap.entriesWithin(budget);
+        // 3 budgets' worth of distinct features: 3 flushes and the final one, not one per line
+        long[] flushesAndRecords = combine(budget, (int) (3 * entries / 2), 2, Integer.MAX_VALUE);
+        assertTrue(flushesAndRecords[0] + " flushes", flushesAndRecords[0] <= flushesAndRecords[1] / entries + 1);
+    }
+
+    @Test
+    public void step2DefaultBudget() {
+        // Step2's mapper flushes on the same trigger, one feature per matching token
+        long budget = Step2.MapperClass.DEFAULT_IN_MAPPER_MEMORY;
+        long entries = LongToLongMap.entriesWithin(budget);
+        long[] flushesAndRecords = combine(budget, (int) (3 * entries / 2), 2, Integer.MAX_VALUE);
+        assertTrue(flushesAndRecords[0] + " flushes", flushesAndRecords[0] <= flushesAndRecords[1] / entries + 1);
+        // 4M records of 100k repeated features: RECORDS_AFTER_COMBINING is the 100k of the final flush
+        flushesAndRecords = combine(budget, 2_000_000, 2, 100_000);
+        assertEquals(1, flushesAndRecords[0]);
+        assertTrue(flushesAndRecords[1] + " records written", flushesAndRecords[1] <= 100_000);
+    }
+
+    private static long memoryBytesOfOneEntry() {
+        LongToLongMap map = new LongToLongMap(16);
+        map.add(0, 1);
+        return map.memoryBytes();
+    }
+
+    /**
+     * Step1's and Step2's mapper loop: tokensPerLine features added per line, a flush (write every entry, clear) when
+     * memoryBytes() > budget after a line, and at the end. Checks that the written counts sum to the added ones.
+     * @param distinctKeys the features are drawn from [0, distinctKeys), Integer.MAX_VALUE for all distinct
+     * @return {flushes, records written}
+     */
+    private static long[] combine(long budget, int lines, int tokensPerLine, int distinctKeys) {
+        Random random = new Random(7);
+        LongToLongMap counts = new LongToLongMap(1 << 12);
+        long flushes = 0;
+        long records = 0;
+        long added = 0;
+        long written = 0;
+        long nextKey = 0;
+        for (int line = 0; line <= lines; line++) {
+            boolean last = line == lines;
+            if (!last) {
+                for (int token = 0; token < tokensPerLine; token++) {
+                    long key = distinctKeys == Integer.MAX_VALUE ? nextKey++ : random.nextInt(distinctKeys);
+                    long count = 1 + random.nextInt(50);
+                    counts.add(key, count);
+                    added += count;
+                }
+            }
+            if (last || counts.memoryBytes() > budget) {
+                for (int slot = 0; slot < counts.capacity(); slot++) {
+                    if (!counts.isUsed(slot)) continue;
+                    records++;
+                    written += counts.value(slot);
+                }
+                counts.clear();
+                flushes++;
+            }
+        }
+        assertEquals(added, written);
+        return new long[]{flushes, records};
+    }
+}
@@ -0,0 +1,160 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The three SimilarityMeasures kernels (dense, sparse, sparse with VectorStats) and measureDisjoint against
+ * Step4's reference methods (dist_by_method_*), within TOLERANCE (STATS_TOLERANCE for the kernels with statistics).
+ */
+public class SimilarityMeasuresTest {
+
+    private static final String[] KERNELS = {"dense", "sparse", "with stats", "disjoint"};
+
+    @Test
+    public void allZeroVector() {
+        double[] zero = new double[8];
+        assertMatchesReference("zero, counts", zero, new double[]{0, 3, 0, 0, 7, 1, 0, 2});
+        assertMatchesReference("weights, zero", new double[]{0.5, 0, -1.5, 0, 0, 2, 0, -0.25}, zero);
+        assertMatchesReference("zero, zero", zero, new double[8]);
+    }
+
+    @Test
+    public void disjointSupports() {
+        assertMatchesReference("counts", new double[]{4, 0, 9, 0, 0, 1}, new double[]{0, 2, 0, 0, 5, 0});
+        assertMatchesReference("weights of both signs", new double[]{-1.5, 0, 0.75, 0, 0, 0}, new double[]{0, 2.5, 0, -0.5, 0, 3});
+    }
+
+    @Test
+    public void identicalVectors() {
+        double[] vector = {3, 0, 1, 0, 12, 7, 0, 0, 2};
+        double[] scores = assertMatchesReference("counts", vector, vector.clone());
+        assertEquals(0.0, scores[0], 0.0); // L1
+        assertEquals(0.0, scores[1], 0.0); // L2
+        assertEquals(1.0, scores[2], SimilarityMeasures.TOLERANCE); // cosine
+        assertEquals(1.0, scores[3], 0.0); // min/max
+        assertEquals(1.0, scores[4], 0.0); // dice
+        assertEquals(0.0, scores[5], SimilarityMeasures.TOLERANCE); // JS
+
+        double[] weights = {0.25, -1.0, 0, 3.5, 0, -0.125};
+        assertMatchesReference("weights of both signs", weights, weights.clone());
+    }
+
+    @Test
+    public void negativeEntries() {
+        // v7 / v8 (t-test, and v8 can be below 0 where v7 is not): mixed signs, also both negative on an entry
+        assertMatchesReference("mixed signs", new double[]{-2.5, 1.0, 0, -0.5, 3.0, 0, -1.0},
+                new double[]{1.5, -1.0, 2.0, -0.75, 0, -4.0, -1.0});
+        assertMatchesReference("all negative", new double[]{-1, -2, 0, -3}, new double[]{-3, 0, -1, -0.5});
+    }
+
+    @Test
+    public void jensenShannonClosedForm() {
+        // with one of the two entries 0 the midpoint is x / 2, the term is x * ln 2
+        double[] scores = assertMatchesReference("disjoint", new double[]{2, 0}, new double[]{0, 3});
+        assertEquals(5 * Math.log(2), scores[5], SimilarityMeasures.TOLERANCE);
+
+        // midpoint (2, 0.5): kl1 = ln(1/2) + ln(1/0.5) = 0, kl2 = 3 ln(3/2)
+        scores = assertMatchesReference("overlapping", new double[]{1, 1}, new double[]{3, 0});
+        assertEquals(3 * Math.log(1.5), scores[5], SimilarityMeasures.TOLERANCE);
+
+        // a negative entry has no term of its own but shifts the midpoint, (0.5, 0.5): 4 ln(4/0.5) + 2 ln(2/0.5)
+        scores = assertMatchesReference("negative", new double[]{-1, 4}, new double[]{2, -3});
+        assertEquals(4 * Math.log(8) + 2 * Math.log(4), scores[5], SimilarityMeasures.TOLERANCE);
+    }
+
+    @Test
+    public void randomVectors() {
+        Random random = new Random(42);
+        for (int p = 0; p < 400; p++) {
+            int kind = p % 4; // 0 counts, 1 small positive weights, 2 weights of both signs, 3 one vector all zero
+            double[] vector1 = randomVector(random, 500, kind);
+            double[] vector2 = kind == 3 ? new double[500] : randomVector(random, 500, kind);
+            if (p % 8 == 1) { // some pairs share most of their entries
+                for (int i = 0; i < vector1.length; i += 2) vector2[i] = vector1[i];
+            }
+            assertMatchesReference("random pair " + p, vector1, vector2);
+        }
+    }
+
+    /**
+     * Checks every kernel (and measureDisjoint if the supports are disjoint) against the reference methods.
+     * @return the reference scores
+     */
+    private static double[] assertMatchesReference(String name, double[] vector1, double[] vector2) {
+        double[] reference = {
+                Step4.ReducerClass.dist_by_method_9(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_10(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_11(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_13(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_15(vector1, vector2),
+                Step4.ReducerClass.dist_by_method_17(vector1, vector2)};
+
+        SparseVector sparse1 = sparse(vector1);
+        SparseVector sparse2 = sparse(vector2);
+        VectorStats stats1 = new VectorStats();
+        stats1.compute(sparse1);
+        VectorStats stats2 = new VectorStats();
+        stats2.compute(sparse2);
+
+        double[] scores = new double[SimilarityMeasures.NUM_MEASURES];
+        for (int kernel = 0; kernel < KERNELS.length; kernel++) {
+            if (kernel == 0) {
+                SimilarityMeasures.measure(vector1, vector2, scores, 0);
+            } else if (kernel == 1) {
+                SimilarityMeasures.measure(sparse1, sparse2, scores, 0);
+            } else if (kernel == 2) {
+                SimilarityMeasures.measure(sparse1, stats1, sparse2, stats2, scores, 0);
+            } else if (disjoint(vector1, vector2)) {
+                SimilarityMeasures.measureDisjoint(stats1, stats2, scores, 0);
+            } else {
+                continue;
+            }
+            double tolerance = kernel >= 2 ? SimilarityMeasures.STATS_TOLERANCE : SimilarityMeasures.TOLERANCE;
+            for (int m = 0; m < SimilarityMeasures.NUM_MEASURES; m++) {
+                double error = Math.abs(scores[m] - reference[m]) / Math.max(1.0, Math.abs(reference[m]));
+                if (!(error <= tolerance)) { // also catches NaN
+                    fail(name + ", " + KERNELS[kernel] + ", method " + SimilarityMeasures.METHODS[m] + ": "
+                            + scores[m] + ", reference " + reference[m]);
+                }
+            }
+        }
+        return reference;
+    }
+
+    private static boolean disjoint(double[] vector1, double[] vector2) {
+        for (int i = 0; i < vector1.length; i++) {
+            if (vector1[i] != 0 && vector2[i] != 0) return false;
+        }
+        return true;
+    }
+
+    private static SparseVector sparse(double[] dense) {
+        SparseVector vector = new SparseVector();
+        for (int i = 0; i < dense.length; i++) {
+            vector.add(i, dense[i]);
+        }
+        return vector;
+    }
+
+    // about 5% non-zero entries
+    private static double[] randomVector(Random random, int dimension, int kind) {
+        double[] vector = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            if (random.nextInt(20) != 0) continue;
+            switch (kind) {
+                case 0:
+                    vector[i] = 1 + random.nextInt(1000);
+                    break;
+                case 2:
+                    vector[i] = random.nextGaussian() * 3;
+                    break;
+                default:
+                    vector[i] = random.nextDouble() * 1e-3;
+            }
+        }
+        return vector;
+    }
+}